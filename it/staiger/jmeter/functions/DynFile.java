@@ -0,0 +1,117 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.functions;
+
+import it.staiger.jmeter.protocol.http.config.FileCatalog;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.jmeter.engine.util.CompoundVariable;
+import org.apache.jmeter.functions.AbstractFunction;
+import org.apache.jmeter.functions.InvalidVariableException;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Function returning a field of a file of a {@link FileCatalog}, e.g. <code>${__dynFile(7,SHA256)}</code>.
+ * Parameters:
+ * <ol>
+ * <li>number of the file, starting at 1</li>
+ * <li>field: Path, ParamName, MimeType or SHA256</li>
+ * <li>property prefix of the HTTP Dynamic Files element (optional if the thread uses only one)</li>
+ * </ol>
+ * The catalog is shared by all threads, so the lookup neither copies nor creates any values.
+ * Returns an empty string if the catalog, the file or the field does not exist.
+ */
+public class DynFile extends AbstractFunction {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final List<String> desc = new LinkedList<>();
+
+    private static final String KEY = "__dynFile"; // $NON-NLS-1$
+
+    static {
+        desc.add("Number of the file, starting at 1"); // $NON-NLS-1$
+        desc.add("Field: Path, ParamName, MimeType or SHA256"); // $NON-NLS-1$
+        desc.add("Property prefix of the HTTP Dynamic Files (optional if the thread uses only one)"); // $NON-NLS-1$
+    }
+
+    private CompoundVariable[] values;
+
+    @Override
+    public String execute(SampleResult previousResult, Sampler currentSampler) throws InvalidVariableException {
+        String number = values[0].execute().trim();
+        String field = values[1].execute().trim();
+        String prefix = values.length > 2 ? values[2].execute().trim() : "";
+
+        FileCatalog catalog = getCatalog(prefix);
+        if (catalog == null) {
+            log.warn("No file catalog " + (prefix.isEmpty() ? "registered or prefix needed" : "with prefix " + prefix));
+            return "";
+        }
+        try {
+            int index = Integer.parseInt(number) - 1;
+            if (index < 0 || index >= catalog.size()) {
+                log.warn("File " + number + " out of range of " + catalog.size() + " files");
+                return "";
+            }
+            String value = catalog.get(index, field);
+            return value == null ? "" : value;
+        } catch (NumberFormatException e) {
+            log.warn("Invalid file number " + number);
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage());
+        }
+        return "";
+    }
+
+    /**
+     * Looks up the catalog of the current thread first, which is the one of the element in its scope
+     * or its own if the paths depend on thread variables, then the one registered for the test.
+     * Without prefix, the catalog of an element without prefix or the only catalog of the thread is used.
+     *
+     * @param prefix property prefix or empty for the only catalog
+     * @return the catalog or null if there is none
+     */
+    private FileCatalog getCatalog(String prefix) {
+        JMeterVariables vars = getVariables();
+        if (vars != null) {
+            Object own = vars.getObject(FileCatalog.getVariableName(prefix));
+            if (own == null && prefix.isEmpty()) {
+                own = vars.getObject(FileCatalog.DEFAULT_VARIABLE);
+                if (Boolean.FALSE.equals(own)) {
+                    return null;
+                }
+            }
+            if (own instanceof FileCatalog) {
+                return (FileCatalog) own;
+            }
+        }
+        return prefix.isEmpty() ? FileCatalog.getDefault() : FileCatalog.get(prefix);
+    }
+
+    @Override
+    public void setParameters(Collection<CompoundVariable> parameters) throws InvalidVariableException {
+        checkParameterCount(parameters, 2, 3);
+        values = parameters.toArray(new CompoundVariable[parameters.size()]);
+    }
+
+    @Override
+    public String getReferenceKey() {
+        return KEY;
+    }
+
+    @Override
+    public List<String> getArgumentDesc() {
+        return desc;
+    }
+}
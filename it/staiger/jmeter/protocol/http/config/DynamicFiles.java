@@ -6,14 +6,21 @@
 package it.staiger.jmeter.protocol.http.config;
 
 import it.staiger.jmeter.services.FileContentServer;
+import it.staiger.jmeter.util.SharedClones;
+import it.staiger.jmeter.util.ThreadValues;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.jmeter.engine.event.LoopIterationEvent;
 import org.apache.jmeter.engine.event.LoopIterationListener;
 import org.apache.jmeter.protocol.http.util.HTTPFileArg;
 import org.apache.jmeter.protocol.http.util.HTTPFileArgs;
-import org.apache.jmeter.testelement.property.PropertyIterator;
-import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.testelement.property.CollectionProperty;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
@@ -21,9 +28,17 @@ import org.apache.log.Logger;
 
 /**
  * A set of HTTPFileArg objects.
+ * <p>
+ * Optionally all files matching a glob pattern in the folder {@link #ATTACHMENTS_PATH}
+ * are appended to the listed files, see {@link #getAllFiles()}. If it denotes a
+ * {@link it.staiger.jmeter.services.CorpusPack} instead, the pack is mounted and its entries are appended.
+ * Large lists can be kept in a {@link FileManifest} instead of the test plan, its files are appended last.
+ * <p>
+ * If no file depends on the thread, the per-thread clones share the files of their element
+ * instead of copying them, see {@link #clone()}.
  *
  */
-public class DynamicFiles extends HTTPFileArgs implements Serializable, LoopIterationListener {
+public class DynamicFiles extends HTTPFileArgs implements Serializable, LoopIterationListener, TestStateListener {
 
     private static final long serialVersionUID = 240L;
     
@@ -36,11 +51,33 @@ public class DynamicFiles extends HTTPFileArgs implements Serializable, LoopIter
     public static final String SET_SHA256 = "DyanmicFiles.SET_SHA256";
     public static final String SET_ARGS = "DyanmicFiles.SET_ARGS";
     public static final String SAVE_METHOD = "DyanmicFiles.SAVE_METHOD";
+    public static final String SCAN_FOLDER = "DyanmicFiles.SCAN_FOLDER";
+    public static final String SCAN_GLOB = "DyanmicFiles.SCAN_GLOB";
+    public static final String MANIFEST = "DyanmicFiles.MANIFEST";
     public static final String SAVE_METHOD_PROP = "Property";
     public static final String SAVE_METHOD_VAR = "Variable";
+    public static final String SAVE_METHOD_CATALOG = "Catalog";
     
+    /** files found in the folders of the running test by folder, glob and MIME type, shared by all clones */
+    private static final ConcurrentMap<String, HTTPFileArg[]> SCANNED = new ConcurrentHashMap<>();
+
     private boolean firstIteration=true;
 
+    /** catalog of the running test, created by the element and handed to its clones, null if the paths differ per thread */
+    private transient FileCatalog catalog;
+
+    /** all files, created once per clone while running, or shared with the element */
+    private transient HTTPFileArg[] allFiles;
+
+    /** listed files of the element handed on to its clones, null if they depend on the thread */
+    private transient HTTPFileArg[] sharedFiles;
+
+    /** listed files of a clone still shared with its element, null once the clone has its own */
+    private transient HTTPFileArg[] borrowedFiles;
+
+    /** files of the manifest, shared by all clones */
+    private transient HTTPFileArg[] manifestFiles;
+
     /**
      * Create a new HTTPFileArgs object with no files.
      */
@@ -53,51 +90,261 @@ public class DynamicFiles extends HTTPFileArgs implements Serializable, LoopIter
      * variables in the config elements thread context or
      * in global properties
      * only done once at first run of Thread, as Files should not change in-between!
+     * The values are taken from the {@link FileCatalog} the element created at test start and passed on
+     * to its clones, global properties are set only there. Threads put the shared values into their variables without building them again,
+     * The catalog itself is put as object under {@link FileCatalog#getVariableName(String)} in every mode. The entries are still copied into every thread:
+     * {@link JMeterVariables} keeps its own map and cannot fall back to a shared one, only the strings are shared.
+     * Catalog mode avoids the copies.
+     * Only if the paths depend on thread variables, every thread creates its own catalog.
+     * In catalog mode no variables or properties are set, the values are read by
+     * <code>${__dynFile(number,field)}</code> from the catalog.
      */
 	@Override
 	public void iterationStart(LoopIterationEvent iterEvent) {
-
-		int i = 1;
-		
-        PropertyIterator iter = getHTTPFileArgsCollection().iterator();
-        while (getArgs() && firstIteration==true && iter.hasNext()) {
-            HTTPFileArg fileArg = (HTTPFileArg) iter.next().getObjectValue();
-            String name = getPropertyPrefix() + Integer.toString(i++);
-            
-            /*
-             * switch case not possible because compared cases are not constant strings
-             */
-            switch(getSaveMethod()){
-            case SAVE_METHOD_PROP:
-                	JMeterUtils.setProperty(name + "_Path", fileArg.getPath());
-                	JMeterUtils.setProperty(name + "_ParamName", fileArg.getParamName());
-                	JMeterUtils.setProperty(name + "_MimeType", fileArg.getMimeType());
-	                
-	    			if(getSHA256()){
-	    				JMeterUtils.setProperty(name + "_SHA256", FileContentServer.getServer().getSHA256(fileArg.getPath()));
-	    			}
-	    			break;
-            case SAVE_METHOD_VAR:
-	                final JMeterContext context = getThreadContext();
-	                JMeterVariables threadVars = context.getVariables();
-	                
-                	threadVars.put(name + "_Path", fileArg.getPath());
-                	threadVars.put(name + "_ParamName", fileArg.getParamName());
-                	threadVars.put(name + "_MimeType", fileArg.getMimeType());
-	                
-	    			if(getSHA256()){
-	    				threadVars.put(name + "_SHA256", FileContentServer.getServer().getSHA256(fileArg.getPath()));
-	    			}
-	    			break;
-            default:
-	    			log.error("Invalid save method: " + getSaveMethod());
-	    			break;
-            }// end of if
-        }// end of while loop
-		
+        if(!getArgs() || !firstIteration){
+            return;
+        }
         firstIteration=false;
-	}// end of method
-	
+
+        FileCatalog catalog = this.catalog;
+        JMeterVariables threadVars = getThreadContext().getVariables();
+        switch(getSaveMethod()){
+        case SAVE_METHOD_PROP:
+                if(catalog == null){
+                    catalog = createCatalog();
+                    JMeterUtils.getJMeterProperties().putAll(catalog.getVariables());
+                }
+                break;
+        case SAVE_METHOD_VAR:
+                if(catalog == null){
+                    catalog = createCatalog();
+                }
+                threadVars.putAll(catalog.getVariables());
+                break;
+        case SAVE_METHOD_CATALOG:
+                if(catalog == null){
+                    catalog = createCatalog();
+                }
+                break;
+        default:
+                log.error("Invalid save method: " + getSaveMethod());
+                return;
+        }
+        threadVars.putObject(FileCatalog.getVariableName(getPropertyPrefix()), catalog);
+        Object previous = threadVars.getObject(FileCatalog.DEFAULT_VARIABLE);
+        threadVars.putObject(FileCatalog.DEFAULT_VARIABLE, previous == null || previous == catalog ? catalog : Boolean.FALSE);
+	}
+
+    /**
+     * @return a catalog of all files of this element
+     */
+    private FileCatalog createCatalog() {
+        return FileCatalog.create(getPropertyPrefix(), getAllFiles(), getSHA256());
+    }
+
+    /**
+     * Returns the listed files followed by the files found in the folder, if scanning is enabled,
+     * and the files of the manifest, if one is set.
+     * The found files are sorted by their path, their parameter name is the file name
+     * without extension and their MIME type is the configured one, or the one stored in the pack.
+     * <p>
+     * While running, the array is created once per clone and returned on every call, so samplers
+     * merging this element can keep it without copying. It must not be modified.
+     *
+     * @return all files of this element
+     */
+    public HTTPFileArg[] getAllFiles() {
+        HTTPFileArg[] all = allFiles;
+        if(all != null){
+            return all;
+        }
+        HTTPFileArg[] listed = borrowedFiles != null ? borrowedFiles : asArray();
+        HTTPFileArg[] scanned = getScannedFiles();
+        HTTPFileArg[] manifest = getManifestFiles();
+        if(scanned.length == 0 && manifest.length == 0){
+            all = listed;
+        } else {
+            all = new HTTPFileArg[listed.length + scanned.length + manifest.length];
+            System.arraycopy(listed, 0, all, 0, listed.length);
+            System.arraycopy(scanned, 0, all, listed.length, scanned.length);
+            System.arraycopy(manifest, 0, all, listed.length + scanned.length, manifest.length);
+        }
+        if(isRunningVersion()){
+            allFiles = all;
+        }
+        return all;
+    }
+
+    /**
+     * @return the files of the manifest, empty if none is set
+     */
+    private HTTPFileArg[] getManifestFiles() {
+        if(getManifest().isEmpty()){
+            return new HTTPFileArg[0];
+        }
+        if(manifestFiles == null){
+            manifestFiles = FileManifest.getFiles(getManifest(), getAttachmentsCT());
+        }
+        return manifestFiles;
+    }
+
+    /**
+     * @return the files found in the folder, empty if scanning is disabled; shared by all clones while running
+     */
+    private HTTPFileArg[] getScannedFiles() {
+        if(!getScanFolder()){
+            return new HTTPFileArg[0];
+        }
+        String key = getRelativePath() + '\n' + getScanGlob() + '\n' + getAttachmentsCT();
+        HTTPFileArg[] scannedFiles = SCANNED.get(key);
+        if(scannedFiles == null){
+            List<String> paths = FileContentServer.getServer().listDirectory(getRelativePath(), getScanGlob());
+            HTTPFileArg[] scanned = new HTTPFileArg[paths.size()];
+            for(int i = 0; i < scanned.length; i++){
+                String path = paths.get(i);
+                String name = FileManifest.getBaseName(path);
+                String mimeType = getAttachmentsCT();
+                if(mimeType.isEmpty()){
+                    String packed = FileContentServer.getServer().getMimeType(path);
+                    mimeType = packed == null ? mimeType : packed;
+                }
+                scanned[i] = new HTTPFileArg(path, name, mimeType);
+            }
+            scannedFiles = scanned;
+            if(isRunningVersion()){
+                HTTPFileArg[] previous = SCANNED.putIfAbsent(key, scanned);
+                scannedFiles = previous == null ? scanned : previous;
+            }
+        }
+        return scannedFiles;
+    }
+
+    /**
+     * Loads all files into the {@link FileContentServer} before the threads start
+     * and exports them once for all threads, unless their paths depend on thread variables.
+     * Files, folders and manifests depending on the thread are not loaded, as the values seen
+     * here are those of the engine thread, not those the threads will send.
+     * They are loaded even if the samplers using them stream their files, which is not known here.
+     */
+    @Override
+    public void testStarted() {
+        catalog = null;
+        HTTPFileArg[] listed = asArray();
+        boolean sourcesShared = !dependsOnThread(ATTACHMENTS_PATH) && !dependsOnThread(SCAN_GLOB)
+                && !dependsOnThread(MANIFEST) && !dependsOnThread(ATTACHMENTS_CT);
+        sharedFiles = isRunningVersion() && sourcesShared && FileCatalog.isShareable(listed) ? listed : null;
+        List<String> paths = new ArrayList<>();
+        for(HTTPFileArg file : listed){
+            if(!ThreadValues.dependOnThread(file)){
+                paths.add(file.getPath());
+            }
+        }
+        FileContentServer.getServer().reserveFiles(paths);
+        if(getScanFolder() && !dependsOnThread(ATTACHMENTS_PATH) && !dependsOnThread(SCAN_GLOB)){
+            FileContentServer.getServer().reserveDirectory(getRelativePath(), getScanGlob());
+        }
+        if(!getManifest().isEmpty() && !dependsOnThread(MANIFEST)){
+            paths.clear();
+            for(HTTPFileArg file : getManifestFiles()){
+                paths.add(file.getPath());
+            }
+            FileContentServer.getServer().reserveFiles(paths);
+        }
+        if(sharedFiles != null){
+            // created before the threads start, so all clones share the same array
+            getAllFiles();
+        }
+        if(getArgs() && sourcesShared){
+            HTTPFileArg[] files = getAllFiles();
+            if(FileCatalog.isShareable(files)){
+                catalog = FileCatalog.create(getPropertyPrefix(), files, getSHA256());
+                if(SAVE_METHOD_PROP.equals(getSaveMethod())){
+                    JMeterUtils.getJMeterProperties().putAll(catalog.getVariables());
+                }
+                FileCatalog.register(catalog);
+            }
+        }
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    /**
+     * @param name name of a property
+     * @return true if the property contains a function or variable reference
+     */
+    private boolean dependsOnThread(String name) {
+        return ThreadValues.dependsOnThread(getProperty(name));
+    }
+
+    /**
+     * Releases the contents of all files, the catalog, the manifests and the found files,
+     * so they are not kept until the next test.
+     */
+    @Override
+    public void testEnded() {
+        allFiles = null;
+        sharedFiles = null;
+        SCANNED.clear();
+        if(catalog != null){
+            FileCatalog.unregister(catalog);
+            catalog = null;
+        }
+        FileManifest.clear();
+        FileContentServer.getServer().clearFiles();
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+
+    /**
+     * Hands the catalog created at test start on to the clone, so every thread uses the catalog of its own element.
+     * While running, the listed files are not cloned if no file depends on the thread: the clone shares them
+     * and all files with the element, and copies the listed files only once they are read or changed
+     * through {@link #getHTTPFileArgsCollection()}.
+     */
+    @Override
+    public Object clone() {
+        DynamicFiles clone;
+        if(sharedFiles != null){
+            clone = SharedClones.cloneWithout(this, super.getHTTPFileArgsCollection().getName());
+            clone.borrowedFiles = sharedFiles;
+            clone.allFiles = getAllFiles();
+        } else {
+            clone = (DynamicFiles) super.clone();
+        }
+        clone.catalog = catalog;
+        return clone;
+    }
+
+    /**
+     * Copies the files shared with the element into the clone first, so they can be read and changed as usual.
+     */
+    @Override
+    public CollectionProperty getHTTPFileArgsCollection() {
+        HTTPFileArg[] borrowed = borrowedFiles;
+        if(borrowed != null){
+            borrowedFiles = null;
+            boolean running = isRunningVersion();
+            setRunningVersion(false);
+            for(HTTPFileArg file : borrowed){
+                addHTTPFileArg((HTTPFileArg) file.clone());
+            }
+            setRunningVersion(running);
+        }
+        return super.getHTTPFileArgsCollection();
+    }
+
+    @Override
+    public void clear() {
+        borrowedFiles = null;
+        super.clear();
+    }
+
 	/*
 	 * Are implemented by FileContentServer for now
 	byte[] getFile(String path){
@@ -156,6 +403,18 @@ public class DynamicFiles extends HTTPFileArgs implements Serializable, LoopIter
     public void setRelativePath(String text) {
         setProperty(ATTACHMENTS_PATH, text);
     }
+
+    public void setScanFolder(boolean selected) {
+        setProperty(SCAN_FOLDER, selected);
+    }
+
+    public void setScanGlob(String text) {
+        setProperty(SCAN_GLOB, text);
+    }
+
+    public void setManifest(String text) {
+        setProperty(MANIFEST, text);
+    }
     
     
     /*
@@ -185,4 +444,19 @@ public class DynamicFiles extends HTTPFileArgs implements Serializable, LoopIter
     public boolean getArgs() {
     	return getPropertyAsBoolean(SET_ARGS);
     }
+
+    public boolean getScanFolder() {
+        return getPropertyAsBoolean(SCAN_FOLDER);
+    }
+
+    public String getScanGlob() {
+        return getPropertyAsString(SCAN_GLOB);
+    }
+
+    /**
+     * @return path of the manifest listing further files, empty if there is none
+     */
+    public String getManifest() {
+        return getPropertyAsString(MANIFEST);
+    }
 }
@@ -0,0 +1,245 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.protocol.http.config;
+
+import it.staiger.jmeter.services.FileContentServer;
+import it.staiger.jmeter.util.ThreadValues;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jmeter.protocol.http.util.HTTPFileArg;
+
+/**
+ * Immutable snapshot of the files of a {@link DynamicFiles} element, created once per test
+ * and shared by all threads. It holds the values exported as <code>prefix&lt;n&gt;_Path</code>,
+ * <code>_ParamName</code>, <code>_MimeType</code> and <code>_SHA256</code>, so they are
+ * neither built nor digested again per thread.
+ * <p>
+ * The values are kept in arrays indexed by file number, see {@link #get(int, String)} and the
+ * function <code>__dynFile</code>. The map of exported names is only built if variables or properties are set.
+ * <p>
+ * Catalogs are registered per element for the duration of a test. Several elements may use the same
+ * prefix, e.g. in different thread groups, so a lookup by prefix only succeeds if it is unique.
+ */
+public final class FileCatalog {
+
+    /** catalogs of the running test, one per element, compared by identity */
+    private static final Set<FileCatalog> catalogs =
+            Collections.newSetFromMap(new ConcurrentHashMap<FileCatalog, Boolean>());
+
+    public static final String FIELD_PATH = "Path"; // $NON-NLS-1$
+    public static final String FIELD_PARAM_NAME = "ParamName"; // $NON-NLS-1$
+    public static final String FIELD_MIME_TYPE = "MimeType"; // $NON-NLS-1$
+    public static final String FIELD_SHA256 = "SHA256"; // $NON-NLS-1$
+
+    /** suffix of the thread variable holding the catalog of an element, appended to its prefix */
+    public static final String VARIABLE_SUFFIX = "#catalog"; // $NON-NLS-1$
+
+    /** thread variable holding the only catalog of the thread, or {@link Boolean#FALSE} if it has several */
+    public static final String DEFAULT_VARIABLE = "#catalog.default"; // $NON-NLS-1$
+
+    private final String prefix;
+
+    private final String[] paths;
+
+    private final String[] paramNames;
+
+    private final String[] mimeTypes;
+
+    /** null if the digests were not requested, they are taken from the {@link FileContentServer} then */
+    private final String[] sha256;
+
+    /** the values by variable name, in file order, created on first request */
+    private volatile Map<String, String> variables;
+
+    private FileCatalog(String prefix, HTTPFileArg[] files, boolean digests) {
+        this.prefix = prefix;
+        paths = new String[files.length];
+        paramNames = new String[files.length];
+        mimeTypes = new String[files.length];
+        sha256 = digests ? new String[files.length] : null;
+        for (int i = 0; i < files.length; i++) {
+            paths[i] = files[i].getPath();
+            paramNames[i] = files[i].getParamName();
+            mimeTypes[i] = files[i].getMimeType();
+            if (digests) {
+                sha256[i] = FileContentServer.getServer().getSHA256(paths[i]);
+            }
+        }
+    }
+
+    /**
+     * Creates a catalog without registering it.
+     *
+     * @param prefix property prefix of the exported names
+     * @param files files in the order they are numbered
+     * @param digests whether to include the SHA-256 digests of the contents
+     * @return the catalog
+     */
+    public static FileCatalog create(String prefix, HTTPFileArg[] files, boolean digests) {
+        return new FileCatalog(prefix, files, digests);
+    }
+
+    /**
+     * Registers the catalog of an element for the running test.
+     *
+     * @param catalog catalog to be registered
+     */
+    static void register(FileCatalog catalog) {
+        catalogs.add(catalog);
+    }
+
+    /**
+     * Removes the catalog of an element at the end of a test, other catalogs with the same prefix are kept.
+     *
+     * @param catalog catalog to be removed
+     */
+    static void unregister(FileCatalog catalog) {
+        catalogs.remove(catalog);
+    }
+
+    /**
+     * @param prefix property prefix of a {@link DynamicFiles} element
+     * @return the catalog registered for the running test or null if there is none, or several elements use the prefix
+     */
+    public static FileCatalog get(String prefix) {
+        FileCatalog found = null;
+        for (FileCatalog catalog : catalogs) {
+            if (catalog.prefix.equals(prefix)) {
+                if (found != null) {
+                    return null;
+                }
+                found = catalog;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the only catalog registered for the running test or null if there is none or several
+     */
+    public static FileCatalog getDefault() {
+        Iterator<FileCatalog> registered = catalogs.iterator();
+        FileCatalog catalog = registered.hasNext() ? registered.next() : null;
+        return registered.hasNext() ? null : catalog;
+    }
+
+    /**
+     * @param prefix property prefix of a {@link DynamicFiles} element
+     * @return name of the thread variable holding the catalog of the element, it does not collide with exported names
+     */
+    public static String getVariableName(String prefix) {
+        return prefix + VARIABLE_SUFFIX;
+    }
+
+    /**
+     * The raw properties are checked, as functions are already evaluated once in the engine thread at test start.
+     *
+     * @param files files of an element
+     * @return true if no path, parameter name or MIME type depends on the thread, so the files are the same for all threads
+     */
+    static boolean isShareable(HTTPFileArg[] files) {
+        for (HTTPFileArg file : files) {
+            if (ThreadValues.dependOnThread(file)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the property prefix
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return number of files
+     */
+    public int size() {
+        return paths.length;
+    }
+
+    /**
+     * @param index index of the file, starting at 0 for file number 1
+     * @return the path of the file
+     */
+    public String getPath(int index) {
+        return paths[index];
+    }
+
+    /**
+     * @param index index of the file, starting at 0 for file number 1
+     * @return the parameter name of the file
+     */
+    public String getParamName(int index) {
+        return paramNames[index];
+    }
+
+    /**
+     * @param index index of the file, starting at 0 for file number 1
+     * @return the MIME type of the file
+     */
+    public String getMimeType(int index) {
+        return mimeTypes[index];
+    }
+
+    /**
+     * @param index index of the file, starting at 0 for file number 1
+     * @return the hex encoded SHA-256 digest of the file or null if it could not be read
+     */
+    public String getSHA256(int index) {
+        return sha256 != null ? sha256[index] : FileContentServer.getServer().getSHA256(paths[index]);
+    }
+
+    /**
+     * @param index index of the file, starting at 0 for file number 1
+     * @param field {@value #FIELD_PATH}, {@value #FIELD_PARAM_NAME}, {@value #FIELD_MIME_TYPE}
+     *          or {@value #FIELD_SHA256}, ignoring case
+     * @return the value of the field
+     * @throws IllegalArgumentException if the field is unknown
+     */
+    public String get(int index, String field) {
+        if (FIELD_PATH.equalsIgnoreCase(field)) {
+            return getPath(index);
+        } else if (FIELD_PARAM_NAME.equalsIgnoreCase(field)) {
+            return getParamName(index);
+        } else if (FIELD_MIME_TYPE.equalsIgnoreCase(field)) {
+            return getMimeType(index);
+        } else if (FIELD_SHA256.equalsIgnoreCase(field)) {
+            return getSHA256(index);
+        }
+        throw new IllegalArgumentException("Unknown field " + field);
+    }
+
+    /**
+     * @return the exported values by variable or property name, unmodifiable
+     */
+    public Map<String, String> getVariables() {
+        Map<String, String> values = variables;
+        if (values == null) {
+            values = new LinkedHashMap<>(paths.length * 16 / 3 + 1);
+            for (int i = 0; i < paths.length; i++) {
+                String name = prefix + Integer.toString(i + 1) + "_";
+                values.put(name + FIELD_PATH, paths[i]);
+                values.put(name + FIELD_PARAM_NAME, paramNames[i]);
+                values.put(name + FIELD_MIME_TYPE, mimeTypes[i]);
+                if (sha256 != null && sha256[i] != null) {
+                    values.put(name + FIELD_SHA256, sha256[i]);
+                }
+            }
+            values = Collections.unmodifiableMap(values);
+            variables = values;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.protocol.http.config;
+
+import it.staiger.jmeter.services.FileContentServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jmeter.protocol.http.util.HTTPFileArg;
+import org.apache.jmeter.services.FileServer;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * List of files read from a manifest instead of being stored in the test plan.
+ * Every line of the UTF-8 encoded manifest describes one file:
+ * <pre>
+ * path[,parameter name[,MIME type]]
+ * </pre>
+ * Empty lines and lines starting with # are ignored, fields are not quoted.
+ * Relative paths are relative to the manifest, packed entries and synthetic contents are accepted as well,
+ * the options of synthetic contents keep their commas, e.g. <code>synthetic:size=5MB,seed=1,big</code>.
+ * The parameter name defaults to the file name without extension, the MIME type to the one
+ * configured, or the one stored in the pack.
+ * <p>
+ * A manifest is read once per test and its files are shared by all threads, they must not be modified.
+ */
+public final class FileManifest {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+    private static final String SYNTHETIC = "synthetic:"; // $NON-NLS-1$
+
+    /** manifests of the running test by path and default MIME type */
+    private static final ConcurrentMap<String, HTTPFileArg[]> manifests = new ConcurrentHashMap<>();
+
+    private FileManifest() {
+    }
+
+    /**
+     * Get the files of a manifest, read on the first request of the test.
+     *
+     * @param path path of the manifest, relative to the base directory or absolute
+     * @param defaultMimeType MIME type of files without one
+     * @return the files, empty if the manifest cannot be read
+     */
+    public static HTTPFileArg[] getFiles(String path, String defaultMimeType) {
+        String key = path + '\n' + defaultMimeType;
+        HTTPFileArg[] files = manifests.get(key);
+        if (files == null) {
+            files = read(FileServer.getFileServer().getResolvedFile(path), defaultMimeType);
+            HTTPFileArg[] previous = manifests.putIfAbsent(key, files);
+            if (previous != null) {
+                files = previous;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Forgets all manifests at the end of a test, so changes are read by the next one.
+     */
+    static void clear() {
+        manifests.clear();
+    }
+
+    /**
+     * @param manifest manifest file
+     * @param defaultMimeType MIME type of files without one
+     * @return the files, empty if the manifest cannot be read
+     */
+    private static HTTPFileArg[] read(File manifest, String defaultMimeType) {
+        List<HTTPFileArg> files = new ArrayList<>();
+        File directory = manifest.getAbsoluteFile().getParentFile();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) { // $NON-NLS-1$
+                    continue;
+                }
+                String[] fields = line.split(","); // $NON-NLS-1$
+                StringBuilder spec = new StringBuilder(fields[0].trim());
+                int next = 1;
+                // the options of synthetic contents are separated by commas as well
+                while (spec.indexOf(SYNTHETIC) == 0 && next < fields.length && fields[next].indexOf('=') != -1) {
+                    spec.append(',').append(fields[next++].trim());
+                }
+                String path = resolve(directory, spec.toString());
+                String paramName = fields.length > next ? fields[next].trim() : "";
+                String mimeType = fields.length > next + 1 ? fields[next + 1].trim() : "";
+                if (paramName.isEmpty()) {
+                    paramName = getBaseName(path);
+                }
+                if (mimeType.isEmpty()) {
+                    mimeType = defaultMimeType;
+                }
+                if (mimeType.isEmpty()) {
+                    String stored = FileContentServer.getServer().getMimeType(path);
+                    mimeType = stored == null ? mimeType : stored;
+                }
+                files.add(new HTTPFileArg(path, paramName, mimeType));
+            }
+            log.info("Read " + files.size() + " files from " + manifest.getPath());
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Could not read manifest " + manifest.getPath(), e);
+            files.clear();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return files.toArray(new HTTPFileArg[files.size()]);
+    }
+
+    /**
+     * @param directory directory of the manifest
+     * @param path path as given in the manifest
+     * @return the path relative to the manifest, if it is a relative file path
+     */
+    private static String resolve(File directory, String path) {
+        if (path.startsWith(SYNTHETIC) || new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(directory, path).getPath();
+    }
+
+    /**
+     * @param path file path or packed entry
+     * @return the name of the file without extension
+     */
+    static String getBaseName(String path) {
+        String name = new File(path.substring(path.lastIndexOf(FileContentServer.PACK_SEPARATOR) + 1)).getName();
+        int last = name.lastIndexOf('.');
+        return last == -1 ? name : name.substring(0, last);
+    }
+}
@@ -132,6 +132,9 @@ public class DynamicFilePanel extends AbstractConfigGui implements ActionListene
     private JTextField propertyPrefix;
     private JTextField attachmentsCT;
     private JTextField folder;
+    private JCheckBox scanFolder;
+    private JTextField scanGlob;
+    private JTextField manifest;
     private JCheckBox setArgs;
     private JCheckBox SHA256;
 	private JLabel example;
@@ -236,6 +239,9 @@ public class DynamicFilePanel extends AbstractConfigGui implements ActionListene
             base.setPropertyPrefix(propertyPrefix.getText());
             base.setAttachmentsCT(attachmentsCT.getText());
             base.setRelativePath(folder.getText());
+            base.setScanFolder(scanFolder.isSelected());
+            base.setScanGlob(scanGlob.getText());
+            base.setManifest(manifest.getText());
             base.setArgs(setArgs.isSelected());
             base.setSHA256(SHA256.isSelected());
             base.setSaveMethod(saveMethod.getText());
@@ -292,6 +298,9 @@ public class DynamicFilePanel extends AbstractConfigGui implements ActionListene
 	        propertyPrefix.setText(base.getPropertyPrefix());
 	        attachmentsCT.setText(base.getAttachmentsCT());
 	        folder.setText(base.getRelativePath());
+	        scanFolder.setSelected(base.getScanFolder());
+	        scanGlob.setText(base.getScanGlob());
+	        manifest.setText(base.getManifest());
 	        setArgs.setSelected(base.getArgs());
 	        SHA256.setSelected(base.getSHA256());
 	        example.setText(propertyPrefix.getText() + "X(_Path || _ParamName || _MimeType || _SHA256)");// $NON-NLS-1$
@@ -349,6 +358,9 @@ public class DynamicFilePanel extends AbstractConfigGui implements ActionListene
     	if(standalone){
 	        attachmentsCT.setText("");// $NON-NLS-1$
 	        folder.setText("");// $NON-NLS-1$
+	        scanFolder.setSelected(false);
+	        scanGlob.setText("");// $NON-NLS-1$
+	        manifest.setText("");// $NON-NLS-1$
 	        SHA256.setSelected(false);
 	        setArgs.setSelected(false);
 	        saveMethod.setText(DynamicFiles.SAVE_METHOD_VAR);
@@ -631,9 +643,10 @@ public class DynamicFilePanel extends AbstractConfigGui implements ActionListene
         example = new JLabel();
         example.setFont(null);
         saveMethod = new JLabeledChoice("Save Method:",
-        				new String[]{DynamicFiles.SAVE_METHOD_PROP, DynamicFiles.SAVE_METHOD_VAR});
+        				new String[]{DynamicFiles.SAVE_METHOD_PROP, DynamicFiles.SAVE_METHOD_VAR, DynamicFiles.SAVE_METHOD_CATALOG});
         saveMethod.setToolTipText("Property - makes file available above Thread Groups\t"
-        						+ "Variable - set for every Thread user in this Thread Context");// $NON-NLS-1$
+        						+ "Variable - set for every Thread user in this Thread Context, 4 entries per file and thread\t"
+        						+ "Catalog - only available via ${__dynFile(X,field,prefix)}");// $NON-NLS-1$
         
         panel.add(StaigerUtils.getInputPanel("prop/var enumeration:", example));// $NON-NLS-1$
         panel.add(saveMethod);        
@@ -704,6 +717,7 @@ public class DynamicFilePanel extends AbstractConfigGui implements ActionListene
         importBtn.addActionListener(this);
 
         importPanel.add(getImportInfo(), BorderLayout.NORTH);
+        importPanel.add(getScanPanel(), BorderLayout.CENTER);
         importPanel.add(importBtn, BorderLayout.SOUTH);
         
         return importPanel;
@@ -730,6 +744,31 @@ public class DynamicFilePanel extends AbstractConfigGui implements ActionListene
 	    return panel;
     }
 
+    /**
+     * Create a panel containing the option to add all files of the folder at test start
+     * and the manifest listing further files.
+     *
+     * @return a panel containing the scan options.
+     */
+    private JPanel getScanPanel(){
+        JPanel panel = new HorizontalPanel();
+
+        scanFolder = new JCheckBox("Add all matching files of the folder at test start");// $NON-NLS-1$
+        scanFolder.setFont(null);
+        scanFolder.setToolTipText("files are appended to the listed files, sorted by their path");// $NON-NLS-1$
+        scanGlob = new JTextField(10);
+        scanGlob.setToolTipText("e.g. *.pdf in all subfolders or docs/*.pdf, leave empty for all files");// $NON-NLS-1$
+
+        manifest = new JTextField(10);
+        manifest.setToolTipText("file listing path[,parameter name[,MIME type]] per line, read at test start");// $NON-NLS-1$
+
+        panel.add(scanFolder);
+        panel.add(StaigerUtils.getInputPanel("Glob:", scanGlob));// $NON-NLS-1$
+        panel.add(StaigerUtils.getInputPanel("Manifest:", manifest));// $NON-NLS-1$
+
+        return panel;
+    }
+
     /**
      * Create a panel containing the add and delete buttons.
      *
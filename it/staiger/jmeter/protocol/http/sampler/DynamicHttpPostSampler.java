@@ -7,8 +7,15 @@ package it.staiger.jmeter.protocol.http.sampler;
 
 import it.staiger.jmeter.protocol.http.config.DynamicFiles;
 import it.staiger.jmeter.protocol.http.sampler.HTTPHC4DynamicFilePost;
+import it.staiger.jmeter.protocol.http.util.AttachmentSelector;
+import it.staiger.jmeter.protocol.http.util.DistributionSelector;
+import it.staiger.jmeter.protocol.http.util.RotationSelector;
+import it.staiger.jmeter.protocol.http.util.SizeSelector;
 import it.staiger.jmeter.protocol.http.util.VariableFileArgs;
 import it.staiger.jmeter.protocol.http.util.VariableFileArg;
+import it.staiger.jmeter.services.FileContentServer;
+import it.staiger.jmeter.util.SharedClones;
+import it.staiger.jmeter.util.ThreadValues;
 
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.config.ConfigTestElement;
@@ -21,15 +28,21 @@ import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.Interruptible;
 import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.property.NullProperty;
 import org.apache.jmeter.testelement.property.TestElementProperty;
+import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interruptible {
 	private static final long serialVersionUID = 240L;
@@ -45,6 +58,17 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
     public static final String THRESHOLD = "DynMP.THRESHOLD";
     public static final String LOG_FILES = "DynMP.LOG_FILES";
     public static final String BLOCK_MERGE = "DynMP.BLOCK_MERGE";
+    public static final String STREAM_FILES = "DynMP.STREAM_FILES";
+    public static final String CHUNKED = "DynMP.CHUNKED";
+    public static final String FILL_TEMPLATES = "DynMP.FILL_TEMPLATES";
+    public static final String SELECTION_MODE = "DynMP.SELECTION_MODE";
+    public static final String COUNT_DISTRIBUTION = "DynMP.COUNT_DISTRIBUTION";
+    public static final String FILE_DISTRIBUTION = "DynMP.FILE_DISTRIBUTION";
+    public static final String TARGET_SIZE = "DynMP.TARGET_SIZE";
+    public static final String SELECTION_LIST = "List";
+    public static final String SELECTION_DISTRIBUTION = "Distribution";
+    public static final String SELECTION_TARGET_SIZE = "Target size";
+    public static final String SELECTION_ROTATION = "Rotation";
     public static final String OWN_ARGUMENTS = "DynMP.ARGUMENTS";
     public static final String ARGUMENT_THRESHOLD = "DynMP.ARGUMENT_THRESHOLD";
     public static final String STATIC_THRESHOLD = "DynMP.STATIC_THRESHOLD";
@@ -57,7 +81,46 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
             Arrays.asList(new String[]{
                     "it.staiger.jmeter.protocol.http.config.gui.DynamicFilePanel"}));
 
+    /** selectors of the running test by their settings and the paths of their files, shared by all threads */
+    private static final ConcurrentMap<String, AttachmentSelector> SELECTORS = new ConcurrentHashMap<>();
+
+    /**
+     * maximum number of shared selectors, further settings get a selector per thread;
+     * settings or files taken from variables may otherwise add a selector on every request
+     */
+    public static final String MAX_SELECTORS_PROPERTY = "dynamicpost.selectors.max"; // $NON-NLS-1$
+    private static final int DEFAULT_MAX_SELECTORS = 1000;
+    private static final int MAX_SELECTORS = JMeterUtils.getPropDefault(MAX_SELECTORS_PROPERTY, DEFAULT_MAX_SELECTORS);
+    private static volatile boolean selectorsCapLogged;
+
     private final transient HTTPHC4DynamicFilePost hc;
+
+    /**
+     * files of the merged {@link DynamicFiles}, shared with it instead of being copied into
+     * {@link #DYNAMIC_FILE_ARGS} on every sample, and the array they were taken from
+     */
+    private transient HTTPFileArg[] mergedFiles;
+    private transient HTTPFileArg[] mergedSource;
+    private transient boolean merged;
+
+    /**
+     * own files of the sampler handed on to its clones while running, null if they depend on the thread,
+     * and the files a clone shares with its sampler instead of cloning {@link #VARIABLE_FILE_ARGS}
+     * and {@link #DYNAMIC_FILE_ARGS}, null once it sets its own
+     */
+    private transient VariableFileArg[] sharedVariableFiles;
+    private transient HTTPFileArg[] sharedDynamicFiles;
+    private transient VariableFileArg[] borrowedVariableFiles;
+    private transient HTTPFileArg[] borrowedDynamicFiles;
+
+    /** selector of this thread and the settings it was created with, looked up again if they change */
+    private transient AttachmentSelector selector;
+    private transient HTTPFileArg[] selectorSource;
+    private transient String selectorMode;
+    private transient String selectorCounts;
+    private transient String selectorFiles;
+    private transient String selectorTarget;
+    private transient String[] selectorPaths;
     
     public DynamicHttpPostSampler(){
         hc = new HTTPHC4DynamicFilePost(this);
@@ -142,10 +205,14 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
      * plus any additional entries saved in the FILE_ARGS property.
      *
      * If there are no valid file entries, then an empty list is returned.
+     * Clones return the files shared with their sampler, the array must not be modified.
      *
      * @return an array of file arguments (never null)
      */
     public VariableFileArg[] getVariableFiles() {
+        if (borrowedVariableFiles != null) {
+            return borrowedVariableFiles;
+        }
         final VariableFileArgs fileArgs = getVariableFileArgs();
         return fileArgs == null ? new VariableFileArg[] {} : fileArgs.asArray();
     }
@@ -161,6 +228,7 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
      * @param files list of files to save
      */
     public void setVariableFiles(VariableFileArg[] files) {
+        borrowedVariableFiles = null;
         VariableFileArgs fileArgs = new VariableFileArgs();
         // Weed out the empty files
         if (files.length > 0) {
@@ -201,10 +269,18 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
      * plus any additional entries saved in the FILE_ARGS property.
      *
      * If there are no valid file entries, then an empty list is returned.
+     * If a {@link DynamicFiles} is merged, its files are returned without copying them, clones return the files
+     * shared with their sampler; the array must not be modified.
      *
      * @return an array of file arguments (never null)
      */
     public HTTPFileArg[] getDynamicFiles() {
+        if (merged) {
+            return mergedFiles;
+        }
+        if (borrowedDynamicFiles != null) {
+            return borrowedDynamicFiles;
+        }
         final HTTPFileArgs fileArgs = getDynamicFileArgs();
         return fileArgs == null ? new HTTPFileArg[] {} : fileArgs.asArray();
     }
@@ -220,6 +296,7 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
      * @param files list of files to save
      */
     public void setDynamicFiles(HTTPFileArg[] files) {
+        borrowedDynamicFiles = null;
         HTTPFileArgs fileArgs = new HTTPFileArgs();
         // Weed out the empty files
         if (files.length > 0) {
@@ -233,15 +310,224 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
         setDynamicFiles(fileArgs);
     }
 
+    /**
+     * Merges the files of a {@link DynamicFiles} by reference. They are copied only
+     * if empty entries have to be removed, and only once for the array they are taken from.
+     */
     @Override
     public void addTestElement(TestElement el) {
         if (el instanceof DynamicFiles && !getBlockMerge()) {
-        	setDynamicFiles(((HTTPFileArgs) el).asArray());
+            HTTPFileArg[] files = ((DynamicFiles) el).getAllFiles();
+            if (files != mergedSource) {
+                mergedSource = files;
+                mergedFiles = withoutEmpty(files);
+            }
+            merged = true;
         } else {
             super.addTestElement(el);
         }
     }
 
+    /**
+     * Forgets the merged files, they are merged again before the next sample.
+     */
+    @Override
+    public void recoverRunningVersion() {
+        super.recoverRunningVersion();
+        merged = false;
+    }
+
+    /**
+     * @param files files to check
+     * @return the same array if no file is empty, otherwise a copy without the empty ones
+     */
+    private static HTTPFileArg[] withoutEmpty(HTTPFileArg[] files) {
+        List<HTTPFileArg> kept = null;
+        for (int i = 0; i < files.length; i++) {
+            if (!files[i].isNotEmpty() && kept == null) {
+                kept = new ArrayList<>(Arrays.asList(files).subList(0, i));
+            } else if (files[i].isNotEmpty() && kept != null) {
+                kept.add(files[i]);
+            }
+        }
+        return kept == null ? files : kept.toArray(new HTTPFileArg[kept.size()]);
+    }
+
+    /**
+     * Selects the dynamic files of the next request, by the list of numbers or the configured selector.
+     * Selectors are created once per test for their settings and files and shared by all threads,
+     * up to {@value #DEFAULT_MAX_SELECTORS} or the property {@value #MAX_SELECTORS_PROPERTY}, further ones
+     * are kept by the thread only. As long as the same array of files is passed, its paths are not compared again.
+     *
+     * @param dynFiles the dynamic files
+     * @return the indexes of the files, starting at 0; listed numbers may be out of range
+     * @throws IllegalArgumentException if a number or the settings of the selector are invalid
+     */
+    public int[] selectAttachments(HTTPFileArg[] dynFiles) {
+        String mode = getSelectionMode();
+        if(mode.isEmpty() || SELECTION_LIST.equals(mode)){
+            String[] numbers = getAttachmentNumbers().split(",");
+            int count = 0;
+            while(count < numbers.length && !numbers[count].isEmpty()){
+                count++;
+            }
+            int[] attachments = new int[count];
+            for(int i = 0; i < count; i++){
+                attachments[i] = Integer.parseInt(numbers[i].trim())-1;
+            }
+            return attachments;
+        }
+        String counts = getCountDistribution();
+        String files = getFileDistribution();
+        String target = getTargetSize();
+        String[] paths = selectorPaths;
+        boolean sameFiles = dynFiles == selectorSource;
+        if(!sameFiles){
+            paths = new String[dynFiles.length];
+            for(int i = 0; i < paths.length; i++){
+                paths[i] = dynFiles[i].getPath();
+            }
+            sameFiles = Arrays.equals(paths, selectorPaths);
+            selectorSource = dynFiles;
+        }
+        if(selector == null || !sameFiles || !mode.equals(selectorMode)
+                || !counts.equals(selectorCounts) || !files.equals(selectorFiles) || !target.equals(selectorTarget)){
+            StringBuilder keyBuilder = new StringBuilder();
+            keyBuilder.append(mode).append('\n').append(counts).append('\n').append(files).append('\n').append(target);
+            for(String path : paths){
+                keyBuilder.append('\n').append(path);
+            }
+            String key = keyBuilder.toString();
+            AttachmentSelector shared = SELECTORS.get(key);
+            if(shared == null){
+                shared = createSelector(mode, counts, files, target, dynFiles);
+                if(SELECTORS.size() < MAX_SELECTORS){
+                    AttachmentSelector previous = SELECTORS.putIfAbsent(key, shared);
+                    if(previous != null){
+                        shared = previous;
+                    }
+                } else if(!selectorsCapLogged){
+                    selectorsCapLogged = true;
+                    log.warn(MAX_SELECTORS + " selectors are shared already, further ones are kept per thread;"
+                            + " the selection settings or dynamic files probably change with every request");
+                }
+            }
+            selector = shared;
+            selectorMode = mode;
+            selectorCounts = counts;
+            selectorFiles = files;
+            selectorTarget = target;
+            selectorPaths = paths;
+        }
+        return selector.select();
+    }
+
+    /**
+     * @param mode selection mode
+     * @param counts distribution of the number of files
+     * @param files distribution or order of the files
+     * @param target target size of the files
+     * @param dynFiles the dynamic files
+     * @return a new selector
+     * @throws IllegalArgumentException if the mode or its settings are invalid
+     */
+    private static AttachmentSelector createSelector(String mode, String counts, String files, String target,
+            HTTPFileArg[] dynFiles) {
+        switch(mode){
+        case SELECTION_DISTRIBUTION:
+            return new DistributionSelector(counts, files, dynFiles.length);
+        case SELECTION_ROTATION:
+            return new RotationSelector(counts, files, dynFiles.length);
+        case SELECTION_TARGET_SIZE:
+            long[] sizes = new long[dynFiles.length];
+            for(int i = 0; i < sizes.length; i++){
+                sizes[i] = FileContentServer.getServer().getLength(dynFiles[i].getPath());
+            }
+            return new SizeSelector(target, sizes);
+        default:
+            throw new IllegalArgumentException("Unknown selection mode " + mode);
+        }
+    }
+
+    /**
+     * Loads the static and dynamic files into the {@link FileContentServer} before the threads start,
+     * unless they are streamed from disk or their paths depend on the thread.
+     */
+    @Override
+    public void testStarted() {
+        super.testStarted();
+        sharedVariableFiles = isShareable(VARIABLE_FILE_ARGS) ? getVariableFiles() : null;
+        sharedDynamicFiles = isShareable(DYNAMIC_FILE_ARGS) ? getDynamicFiles() : null;
+        if(getStreamFiles()){
+            return;
+        }
+        List<String> paths = new ArrayList<>();
+        for(HTTPFileArg file : getHTTPFiles()){
+            if(!ThreadValues.dependOnThread(file)){
+                paths.add(file.getPath());
+            }
+        }
+        for(HTTPFileArg file : getDynamicFiles()){
+            if(!ThreadValues.dependOnThread(file)){
+                paths.add(file.getPath());
+            }
+        }
+        FileContentServer.getServer().reserveFiles(paths);
+    }
+
+    /**
+     * Releases the contents of all files and the selectors, so they are not kept until the next test.
+     */
+    @Override
+    public void testEnded() {
+        super.testEnded();
+        sharedVariableFiles = null;
+        sharedDynamicFiles = null;
+        SELECTORS.clear();
+        selectorsCapLogged = false;
+        FileContentServer.getServer().clearFiles();
+    }
+
+    /**
+     * @param name name of a list of files
+     * @return true if the test is running and the list exists and does not depend on the thread
+     */
+    private boolean isShareable(String name) {
+        return isRunningVersion() && !(getProperty(name) instanceof NullProperty)
+                && !ThreadValues.dependsOnThread(getProperty(name));
+    }
+
+    /**
+     * While running, the lists of files which do not depend on the thread are not cloned:
+     * the clone shares them with this sampler until it sets its own.
+     */
+    @Override
+    public Object clone() {
+        if (sharedVariableFiles == null && sharedDynamicFiles == null) {
+            return super.clone();
+        }
+        List<String> shared = new ArrayList<>();
+        if (sharedVariableFiles != null) {
+            shared.add(VARIABLE_FILE_ARGS);
+        }
+        if (sharedDynamicFiles != null) {
+            shared.add(DYNAMIC_FILE_ARGS);
+        }
+        DynamicHttpPostSampler clone = SharedClones.cloneWithout(this, shared.toArray(new String[shared.size()]));
+        clone.borrowedVariableFiles = sharedVariableFiles;
+        clone.borrowedDynamicFiles = sharedDynamicFiles;
+        return clone;
+    }
+
+    /**
+     * Shuts down the HTTP clients of the finishing thread.
+     */
+    @Override
+    public void threadFinished() {
+        super.threadFinished();
+        hc.threadFinished();
+    }
+
     /*
      * Setters
      */
@@ -274,6 +560,34 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
         setProperty(BLOCK_MERGE, selected);
     }
 
+    public void setStreamFiles(boolean selected) {
+        setProperty(STREAM_FILES, selected);
+    }
+
+    public void setChunked(boolean selected) {
+        setProperty(CHUNKED, selected);
+    }
+
+    public void setFillTemplates(boolean selected) {
+        setProperty(FILL_TEMPLATES, selected);
+    }
+
+    public void setSelectionMode(String text) {
+        setProperty(SELECTION_MODE, text);
+    }
+
+    public void setCountDistribution(String text) {
+        setProperty(COUNT_DISTRIBUTION, text);
+    }
+
+    public void setFileDistribution(String text) {
+        setProperty(FILE_DISTRIBUTION, text);
+    }
+
+    public void setTargetSize(String text) {
+        setProperty(TARGET_SIZE, text);
+    }
+
     public void setOwnArguments(Arguments value) {
         setProperty(new TestElementProperty(OWN_ARGUMENTS, value));
     }
@@ -341,6 +655,55 @@ public class DynamicHttpPostSampler extends HTTPSamplerBase implements Interrupt
         return getPropertyAsBoolean(BLOCK_MERGE);
     }
 
+    /**
+     * @return true if static and dynamic files are read from disk while sending, instead of being cached
+     */
+    public boolean getStreamFiles() {
+        return getPropertyAsBoolean(STREAM_FILES);
+    }
+
+    /**
+     * @return true if the request body is sent with chunked transfer encoding
+     */
+    public boolean getChunked() {
+        return getPropertyAsBoolean(CHUNKED);
+    }
+
+    /**
+     * @return true if ${variables} in static and dynamic files are replaced by their values while sending
+     */
+    public boolean getFillTemplates() {
+        return getPropertyAsBoolean(FILL_TEMPLATES);
+    }
+
+    /**
+     * @return {@value #SELECTION_LIST} (also if empty), {@value #SELECTION_DISTRIBUTION} or {@value #SELECTION_TARGET_SIZE}
+     */
+    public String getSelectionMode() {
+        return getPropertyAsString(SELECTION_MODE);
+    }
+
+    /**
+     * @return distribution of the number of dynamic files, see {@link DistributionSelector}
+     */
+    public String getCountDistribution() {
+        return getPropertyAsString(COUNT_DISTRIBUTION);
+    }
+
+    /**
+     * @return distribution of the dynamic files, see {@link DistributionSelector}
+     */
+    public String getFileDistribution() {
+        return getPropertyAsString(FILE_DISTRIBUTION);
+    }
+
+    /**
+     * @return target size of the dynamic files per request, see {@link SizeSelector}
+     */
+    public String getTargetSize() {
+        return getPropertyAsString(TARGET_SIZE);
+    }
+
     public Arguments getOwnArguments() {
         return (Arguments) getProperty(OWN_ARGUMENTS).getObjectValue();
     }
@@ -8,12 +8,16 @@ package it.staiger.jmeter.protocol.http.sampler;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.PrivilegedActionException;
@@ -26,8 +30,11 @@ import javax.security.auth.Subject;
 
 import it.staiger.jmeter.protocol.http.sampler.DynamicHttpPostSampler;
 import it.staiger.jmeter.protocol.http.util.VariableFileArg;
+import it.staiger.jmeter.services.ContentTemplate;
+import it.staiger.jmeter.services.FileContent;
 import it.staiger.jmeter.services.FileContentServer;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpConnection;
@@ -59,10 +66,12 @@ import org.apache.http.conn.DnsResolver;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.FormBodyPart;
 import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MIME;
 import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.AbstractContentBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
@@ -93,6 +102,7 @@ import org.apache.jmeter.protocol.http.util.HTTPFileArg;
 import org.apache.jmeter.protocol.http.util.SlowHC4SSLSocketFactory;
 import org.apache.jmeter.protocol.http.util.SlowHC4SocketFactory;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.testelement.property.PropertyIterator;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jmeter.util.JsseSSLManager;
@@ -114,6 +124,9 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
     /** Idle timeout to be applied to connections if no Keep-Alive header is sent by the server (default 0 = disable) */
     private static final int IDLE_TIMEOUT = JMeterUtils.getPropDefault("httpclient4.idletimeout", 0);
 
+    /** encoding of variables filled into templates, if no content encoding is set */
+    private static final Charset UTF8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
     private static final String CONTEXT_METRICS = "jmeter_metrics"; // TODO hack for metrics related to HTTPCLIENT-1081, to be removed later
 
     protected final DynamicHttpPostSampler testElement;
@@ -466,6 +479,31 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
         }
     }
 
+    /**
+     * Shuts down the HTTP clients of the finishing thread and their connection managers,
+     * so their sockets are not kept open until the thread local is collected.
+     */
+    @Override
+    protected void threadFinished() {
+        log.debug("Thread Finished");
+        closeThreadLocalConnections();
+        super.threadFinished();
+    }
+
+    /**
+     * Shuts down and forgets the HTTP clients of the current thread.
+     */
+    private void closeThreadLocalConnections() {
+        Map<HttpClientKey, HttpClient> mapHttpClientPerHttpClientKey = HTTPCLIENTS_CACHE_PER_THREAD_AND_HTTPCLIENTKEY.get();
+        for (HttpClient httpClient : mapHttpClientPerHttpClientKey.values()) {
+            ((AbstractHttpClient) httpClient).clearRequestInterceptors();
+            ((AbstractHttpClient) httpClient).clearResponseInterceptors();
+            httpClient.getConnectionManager().shutdown();
+        }
+        mapHttpClientPerHttpClientKey.clear();
+        HTTPCLIENTS_CACHE_PER_THREAD_AND_HTTPCLIENTKEY.remove();
+    }
+
     private HttpClient setupClient(URL url, SampleResult res) {
 
         Map<HttpClientKey, HttpClient> mapHttpClientPerHttpClientKey = HTTPCLIENTS_CACHE_PER_THREAD_AND_HTTPCLIENTKEY.get();
@@ -657,20 +695,117 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
 
 
     // Helper class so we can generate request data without dumping entire file contents to SampleResult
-    private static class ViewableByteBody extends ByteArrayBody {
+    // Writes the content straight from the FileContentServer buffers, which may be outside of the heap,
+    // streams it from the file on every write if it is not to be cached
+    // or writes a template filled with the values taken when the body was created
+    private static class ViewableFileBody extends AbstractContentBody {
+        private final FileContent content;
+        private final File file;
+        private final ContentTemplate template;
+        private final byte[][] values;
+        private final long length;
+        private final String fileName;
         private boolean hideFileData;
         
-        public ViewableByteBody(byte[] content, String mimeType, String fileName) {
-            super(content, mimeType, fileName);
+        public ViewableFileBody(FileContent content, String mimeType, String fileName) {
+            super(mimeType);
+            if (content == null) {
+                throw new IllegalArgumentException("Content of " + fileName + " may not be null");
+            }
+            this.content = content;
+            this.file = null;
+            this.template = null;
+            this.values = null;
+            this.length = content.length();
+            this.fileName = fileName;
             hideFileData = false;
         }
 
+        public ViewableFileBody(File file, String mimeType, String fileName) {
+            super(mimeType);
+            this.content = null;
+            this.file = file;
+            this.template = null;
+            this.values = null;
+            this.length = file.length();
+            this.fileName = fileName;
+            hideFileData = false;
+        }
+
+        public ViewableFileBody(ContentTemplate template, byte[][] values, String mimeType, String fileName) {
+            super(mimeType);
+            this.content = null;
+            this.file = null;
+            this.template = template;
+            this.values = values;
+            this.length = template.length(values);
+            this.fileName = fileName;
+            hideFileData = false;
+        }
+
+        public ViewableFileBody(byte[] content, String mimeType, String fileName) {
+            this(FileContent.wrap(content), mimeType, fileName);
+        }
+
+        /**
+         * @return true if the data must not be copied into the sample result,
+         *          because it is streamed from disk or larger than a segment
+         */
+        boolean isLarge() {
+            return file != null || content != null && content.getSegmentCount() > 1;
+        }
+
+        @Override
+        public String getFilename() {
+            return fileName;
+        }
+
+        @Override
+        public String getCharset() {
+            return null;
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return MIME.ENC_BINARY;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
         @Override
         public void writeTo(final OutputStream out) throws IOException {
             if (hideFileData) {
                 out.write("<actual file content, not shown here>".getBytes());// encoding does not really matter here
+            } else if (content != null) {
+                content.writeTo(out);
+            } else if (template != null) {
+                template.writeTo(out, values);
             } else {
-                super.writeTo(out);
+                streamTo(out);
+            }
+        }
+
+        /**
+         * Transfers the file to the stream without holding more than the transfer buffer in memory.
+         */
+        private void streamTo(final OutputStream out) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = 0;
+                while (position < length) {
+                    long transferred = channel.transferTo(position, length - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException(file.getPath() + " was truncated while sending");
+                    }
+                    position += transferred;
+                }
+            } finally {
+                IOUtils.closeQuietly(in);
             }
         }
     }
@@ -689,7 +824,6 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
         HTTPFileArg staticFiles[] = getHTTPFiles();
         HTTPFileArg dynFiles[] = testElement.getDynamicFiles();
         VariableFileArg variableFiles[] = testElement.getVariableFiles();
-    	String[] attachmentsNumber = null;
         boolean thresholdCheck = testElement.getRecordType()>=testElement.getThreshold();
 
         final String contentEncoding = getContentEncodingOrNull();
@@ -744,7 +878,14 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
 
         // Add all files
         // Cannot retrieve parts once added to the MultiPartEntity, so have to save them here.
-        ViewableByteBody[] viewableByteBodies = new ViewableByteBody[variableFiles.length+staticFiles.length+dynFiles.length];
+        int[] attachments;
+        try{
+            attachments = !testElement.getDynamicThreshold() || thresholdCheck
+                    ? testElement.selectAttachments(dynFiles) : new int[0];
+        }catch(IllegalArgumentException e){
+            throw new IOException("Invalid attachment selection: " + e.getMessage(), e);
+        }
+        ViewableFileBody[] viewableFileBodies = new ViewableFileBody[variableFiles.length+staticFiles.length+attachments.length];
 
         int i = 0;
         
@@ -753,8 +894,8 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
 	        for(int j = 0; j < variableFiles.length; j++, i++) {
 	        	VariableFileArg file = variableFiles[j];
 	            
-	            viewableByteBodies[i] = new ViewableByteBody(file.getContent().getBytes(), file.getMimeType(), file.getName());
-	            multiPart.addPart(file.getParamName(),viewableByteBodies[i]);
+	            viewableFileBodies[i] = new ViewableFileBody(file.getContent().getBytes(), file.getMimeType(), file.getName());
+	            multiPart.addPart(file.getParamName(),viewableFileBodies[i]);
 	            hasContent = true;
 	        }
         
@@ -763,55 +904,60 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
 	        for (i=0; i < staticFiles.length; i++) { 
 	        	HTTPFileArg file = staticFiles[i];
 	            
-	            viewableByteBodies[i] = new ViewableByteBody(contentServer.getFileContent(file.getPath()), file.getMimeType(), new File(file.getPath()).getName());
-	            multiPart.addPart(file.getParamName(),viewableByteBodies[i]);
+	            viewableFileBodies[i] = createFileBody(contentServer, file, charset);
+	            multiPart.addPart(file.getParamName(),viewableFileBodies[i]);
 	            hasContent = true;
 	        }
         
-        //Dynamic Files
-        if(!testElement.getDynamicThreshold() || thresholdCheck){
-
-    		attachmentsNumber = testElement.getAttachmentNumbers().split(",");
-	        
-	        for (int j=0; j < attachmentsNumber.length && !attachmentsNumber[j].isEmpty(); i++, j++) {
-	        	int fileNum = Integer.parseInt(attachmentsNumber[j])-1;
-	        	if(fileNum >= dynFiles.length){
-	        		log.warn("trying to send file out of dynamic files range (" + Integer.toString(fileNum+1) + " of " + Integer.toString(dynFiles.length) + ")\nfile was skipped");
-	        		i--;
-	        		continue;
-	        	}
-	        	HTTPFileArg file = dynFiles[fileNum];
-
-	            viewableByteBodies[i] = new ViewableByteBody(contentServer.getFileContent(file.getPath()), file.getMimeType(), new File(file.getPath()).getName());
-	            multiPart.addPart(file.getParamName(),viewableByteBodies[i]);
-	            hasContent = true;
-	        }
+        //Dynamic Files, selected above unless below the threshold
+        for (int j=0; j < attachments.length; i++, j++) {
+        	int fileNum = attachments[j];
+        	if(fileNum < 0 || fileNum >= dynFiles.length){
+        		log.warn("trying to send file out of dynamic files range (" + Integer.toString(fileNum+1) + " of " + Integer.toString(dynFiles.length) + ")\nfile was skipped");
+        		i--;
+        		continue;
+        	}
+        	HTTPFileArg file = dynFiles[fileNum];
+
+            viewableFileBodies[i] = createFileBody(contentServer, file, charset);
+            multiPart.addPart(file.getParamName(),viewableFileBodies[i]);
+            hasContent = true;
         }
         
-        post.setEntity(multiPart);
+        if(testElement.getChunked()){
+            post.setEntity(new HttpEntityWrapper(multiPart) {
+                @Override
+                public boolean isChunked() {
+                    return true;
+                }
+
+                @Override
+                public long getContentLength() {
+                    return -1;
+                }
+            });
+        }else{
+            post.setEntity(multiPart);
+        }
         if(!hasContent)
         	log.warn("POST has no content!");
 
         if (multiPart.isRepeatable()){
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             
-            //stop the content from appearing in sampler result
-            if(!testElement.getLogFiles()){
-		        for(ViewableByteBody fileBody : viewableByteBodies){
-		        	if(fileBody!=null)fileBody.hideFileData = true;
-		        	else break;
-		        }
-            }
+            //stop the content from appearing in sampler result, streamed and segmented (> 1 GB) contents never do
+	        for(ViewableFileBody fileBody : viewableFileBodies){
+	        	if(fileBody!=null)fileBody.hideFileData = !testElement.getLogFiles() || fileBody.isLarge();
+	        	else break;
+	        }
             
             multiPart.writeTo(bos);
             
             //Set it back, in order for the content to be sent
-            if(!testElement.getLogFiles()){
-		        for(ViewableByteBody fileBody : viewableByteBodies){
-		        	if(fileBody!=null)fileBody.hideFileData = false;
-		        	else break;
-		        }
-            }
+	        for(ViewableFileBody fileBody : viewableFileBodies){
+	        	if(fileBody!=null)fileBody.hideFileData = false;
+	        	else break;
+	        }
             bos.flush();
             // We get the posted bytes using the encoding used to create it
             postedBody.append(new String(bos.toByteArray(),
@@ -824,6 +970,35 @@ public class HTTPHC4DynamicFilePost extends HTTPHC4Impl {
         
         return	postedBody.toString();
     }
+
+    /**
+     * Creates the part body of a file, streamed from disk if the sampler is configured so,
+     * otherwise from the cached content. Packed entries are always taken from their pack.
+     * Cached contents are filled with the current variables, if templates are enabled.
+     *
+     * @param contentServer server holding the contents and resolved paths
+     * @param file file to be sent
+     * @param charset encoding of the variable values, null for UTF-8
+     * @return the part body
+     */
+    private ViewableFileBody createFileBody(FileContentServer contentServer, HTTPFileArg file, Charset charset) {
+        String path = file.getPath();
+        if(testElement.getStreamFiles()){
+            File resolved = contentServer.getResolvedFile(path);
+            if(resolved != null){
+                return new ViewableFileBody(resolved, file.getMimeType(), contentServer.getName(path));
+            }
+        }
+        if(testElement.getFillTemplates()){
+            ContentTemplate template = contentServer.getTemplate(path);
+            if(template != null && template.getSlotCount() > 0){
+                byte[][] values = template.fill(JMeterContextService.getContext().getVariables(),
+                        charset == null ? UTF8 : charset);
+                return new ViewableFileBody(template, values, file.getMimeType(), contentServer.getName(path));
+            }
+        }
+        return new ViewableFileBody(contentServer.getContent(path), file.getMimeType(), contentServer.getName(path));
+    }
     
     /**
      * Parses the result and fills the SampleResult with its info
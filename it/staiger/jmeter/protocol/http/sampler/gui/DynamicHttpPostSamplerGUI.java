@@ -12,6 +12,7 @@ import java.awt.GridBagLayout;
 
 import javax.swing.BorderFactory;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
@@ -56,6 +57,10 @@ public class DynamicHttpPostSamplerGUI extends AbstractSamplerGui{
     private JTextField connTimeout;
     private JTextField respTimeout;
     private JTextField attachmentNumbers;
+    private JComboBox<String> selectionMode;
+    private JTextField countDistribution;
+    private JTextField fileDistribution;
+    private JTextField targetSize;
     private JTextField recordtype;
     private JTextField threshold;
     private JCheckBox keepAlive;
@@ -65,6 +70,9 @@ public class DynamicHttpPostSamplerGUI extends AbstractSamplerGui{
     private JCheckBox staticThreshold;
     private JCheckBox variableThreshold;
     private JCheckBox blockMerge;
+    private JCheckBox streamFiles;
+    private JCheckBox chunked;
+    private JCheckBox fillTemplates;
     private HTTPArgumentsPanel argsPanel;
     private HTTPFileArgsPanel staticFiles;
     private DynamicFilePanel dynamicFiles;
@@ -86,11 +94,19 @@ public class DynamicHttpPostSamplerGUI extends AbstractSamplerGui{
 	        respTimeout.setText(dynamicSampler.getResponseTimeoutAsString());
 	        connTimeout.setText(dynamicSampler.getConnectTimeoutAsString());
 	        attachmentNumbers.setText(dynamicSampler.getAttachmentNumbers());
+	        selectionMode.setSelectedItem(dynamicSampler.getSelectionMode().isEmpty()
+	                ? DynamicHttpPostSampler.SELECTION_LIST : dynamicSampler.getSelectionMode());
+	        countDistribution.setText(dynamicSampler.getCountDistribution());
+	        fileDistribution.setText(dynamicSampler.getFileDistribution());
+	        targetSize.setText(dynamicSampler.getTargetSize());
 	        recordtype.setText(dynamicSampler.getRecordTypeAsString());
 	        threshold.setText(dynamicSampler.getThresholdAsString());
 	        keepAlive.setSelected(dynamicSampler.getUseKeepAlive());
 	        logFiles.setSelected(dynamicSampler.getLogFiles());
 	        blockMerge.setSelected(dynamicSampler.getBlockMerge());
+	        streamFiles.setSelected(dynamicSampler.getStreamFiles());
+	        chunked.setSelected(dynamicSampler.getChunked());
+	        fillTemplates.setSelected(dynamicSampler.getFillTemplates());
 
 	        argumentThreshold.setSelected(dynamicSampler.getArgumentThreshold());
 	        staticThreshold.setSelected(dynamicSampler.getStaticThreshold());
@@ -130,11 +146,18 @@ public class DynamicHttpPostSamplerGUI extends AbstractSamplerGui{
             dynamicSampler.setConnectTimeout(connTimeout.getText());
             dynamicSampler.setResponseTimeout(respTimeout.getText());
             dynamicSampler.setAttachmentNumbers(attachmentNumbers.getText());
+            dynamicSampler.setSelectionMode((String) selectionMode.getSelectedItem());
+            dynamicSampler.setCountDistribution(countDistribution.getText());
+            dynamicSampler.setFileDistribution(fileDistribution.getText());
+            dynamicSampler.setTargetSize(targetSize.getText());
             dynamicSampler.setRecordType(recordtype.getText());
             dynamicSampler.setThreshold(threshold.getText());
             dynamicSampler.setUseKeepAlive(keepAlive.isSelected());
             dynamicSampler.setBlockMerge(blockMerge.isSelected());
             dynamicSampler.setLogFiles(logFiles.isSelected());
+            dynamicSampler.setStreamFiles(streamFiles.isSelected());
+            dynamicSampler.setChunked(chunked.isSelected());
+            dynamicSampler.setFillTemplates(fillTemplates.isSelected());
 
             dynamicSampler.setArgumentThreshold(argumentThreshold.isSelected());
             dynamicSampler.setStaticThreshold(staticThreshold.isSelected());
@@ -177,10 +200,17 @@ public class DynamicHttpPostSamplerGUI extends AbstractSamplerGui{
         keepAlive.setSelected(false);
         logFiles.setSelected(false);
         blockMerge.setSelected(false);
+        streamFiles.setSelected(false);
+        chunked.setSelected(false);
+        fillTemplates.setSelected(false);
         staticThreshold.setSelected(false);
         variableThreshold.setSelected(false);
         dynamicThreshold.setSelected(false);
         attachmentNumbers.setText("");// $NON-NLS-1$
+        selectionMode.setSelectedItem(DynamicHttpPostSampler.SELECTION_LIST);
+        countDistribution.setText("");// $NON-NLS-1$
+        fileDistribution.setText("");// $NON-NLS-1$
+        targetSize.setText("");// $NON-NLS-1$
     }
 
 
@@ -294,14 +324,32 @@ public class DynamicHttpPostSamplerGUI extends AbstractSamplerGui{
         StaigerUtils.addToPanel(fields, editConstraints, 1, i++, threshold = new JTextField(20));
         StaigerUtils.addToPanel(fields, labelConstraints, 0, i, new JLabel("dynamic Files (comma seperated): "));// $NON-NLS-1$
         StaigerUtils.addToPanel(fields, editConstraints, 1, i++,attachmentNumbers = new JTextField(20));
+        StaigerUtils.addToPanel(fields, labelConstraints, 0, i, new JLabel("dynamic Files selection: "));// $NON-NLS-1$
+        StaigerUtils.addToPanel(fields, editConstraints, 1, i++, selectionMode = new JComboBox<>(new String[]{
+                DynamicHttpPostSampler.SELECTION_LIST, DynamicHttpPostSampler.SELECTION_DISTRIBUTION,
+                DynamicHttpPostSampler.SELECTION_TARGET_SIZE, DynamicHttpPostSampler.SELECTION_ROTATION}));
+        selectionMode.setToolTipText("List - the comma seperated numbers\t"
+                + "Distribution - number of files and files drawn from the distributions\t"
+                + "Target size - files summing up close to the target size\t"
+                + "Rotation - the next files in order, shared by all threads");// $NON-NLS-1$
+        StaigerUtils.addToPanel(fields, labelConstraints, 0, i, new JLabel("number of Files: "));// $NON-NLS-1$
+        StaigerUtils.addToPanel(fields, editConstraints, 1, i++, countDistribution = new JTextField(20));
+        countDistribution.setToolTipText("3 or 1-5 (uniform) or 1=50,2=30,5=20 (weighted), only 3 for rotation");// $NON-NLS-1$
+        StaigerUtils.addToPanel(fields, labelConstraints, 0, i, new JLabel("Files distribution: "));// $NON-NLS-1$
+        StaigerUtils.addToPanel(fields, editConstraints, 1, i++, fileDistribution = new JTextField(20));
+        fileDistribution.setToolTipText("uniform, zipf(s) or weights(w1,w2,...); sequential or stride(seed) for rotation");// $NON-NLS-1$
+        StaigerUtils.addToPanel(fields, labelConstraints, 0, i, new JLabel("target size: "));// $NON-NLS-1$
+        StaigerUtils.addToPanel(fields, editConstraints, 1, i++, targetSize = new JTextField(20));
+        targetSize.setToolTipText("5MB or 1MB-10MB (uniform)");// $NON-NLS-1$
         StaigerUtils.addToPanel(fields, labelConstraints, 1, i,getCheckBoxes());  
     	
 		return fields;
     }
 
     /**
-     * Create a panel containing further options to log the files content
-     * and whether to block overwriting the dynamic files from external config elements.
+     * Create a panel containing further options to log the files content,
+     * whether to block overwriting the dynamic files from external config elements
+     * and how to send the files.
      *
      * @return the panel
      */
@@ -317,10 +365,21 @@ public class DynamicHttpPostSamplerGUI extends AbstractSamplerGui{
         logFiles.setFont(null);
         blockMerge = new JCheckBox("Block external dynamic files");// $NON-NLS-1$
         blockMerge.setFont(null);
+        streamFiles = new JCheckBox("Stream files from disk");// $NON-NLS-1$
+        streamFiles.setFont(null);
+        streamFiles.setToolTipText("read static and dynamic files while sending instead of caching them");// $NON-NLS-1$
+        chunked = new JCheckBox("Chunked transfer");// $NON-NLS-1$
+        chunked.setFont(null);
+        fillTemplates = new JCheckBox("Fill variables into files");// $NON-NLS-1$
+        fillTemplates.setFont(null);
+        fillTemplates.setToolTipText("replace ${name} in static and dynamic files by the value of the variable");// $NON-NLS-1$
 
         checkBoxes.add(keepAlive);
     	checkBoxes.add(logFiles);
     	checkBoxes.add(blockMerge);
+    	checkBoxes.add(streamFiles);
+    	checkBoxes.add(chunked);
+    	checkBoxes.add(fillTemplates);
     	
 		return checkBoxes;
     }
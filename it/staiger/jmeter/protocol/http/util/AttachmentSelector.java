@@ -0,0 +1,19 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.protocol.http.util;
+
+/**
+ * Selects the dynamic files sent with one request.
+ * Selectors are created once per test for a number of files and shared by all threads,
+ * so implementations must be thread safe and should not allocate more than the result.
+ */
+public interface AttachmentSelector {
+
+    /**
+     * @return the indexes of the files to be sent, starting at 0, in the order they are sent
+     */
+    int[] select();
+}
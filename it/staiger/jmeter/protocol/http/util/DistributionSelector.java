@@ -0,0 +1,159 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.protocol.http.util;
+
+import it.staiger.jmeter.util.AliasTable;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws the number of files and the files themselves from configured distributions.
+ * <p>
+ * The number of files is given as
+ * <ul>
+ * <li><code>3</code> - always three files</li>
+ * <li><code>1-5</code> - one to five files, uniformly distributed</li>
+ * <li><code>1=50,2=30,5=20</code> - one file in 50, two in 30 and five in 20 of 100 requests</li>
+ * </ul>
+ * The files are drawn by
+ * <ul>
+ * <li><code>uniform</code> - every file with the same probability</li>
+ * <li><code>zipf(s)</code> - the file with number k with a probability proportional to 1/k^s,
+ *      so the files should be ordered by popularity; s defaults to 1</li>
+ * <li><code>weights(5,1,1)</code> - every file with a probability proportional to its weight,
+ *      files without a weight have weight 1</li>
+ * </ul>
+ * Files are drawn independently, so a file may be sent more than once with a request.
+ * Weighted distributions are drawn by {@link AliasTable}s in constant time.
+ */
+public final class DistributionSelector implements AttachmentSelector {
+
+    public static final String UNIFORM = "uniform"; // $NON-NLS-1$
+    public static final String ZIPF = "zipf"; // $NON-NLS-1$
+    public static final String WEIGHTS = "weights"; // $NON-NLS-1$
+
+    /** smallest number of files with a uniformly distributed count */
+    private final int minCount;
+
+    /** largest number of files with a uniformly distributed count */
+    private final int maxCount;
+
+    /** counts of a weighted count distribution, null if uniform */
+    private final int[] counts;
+
+    private final AliasTable countTable;
+
+    private final int fileCount;
+
+    /** null if the files are uniformly distributed */
+    private final AliasTable fileTable;
+
+    /**
+     * @param countSpecification distribution of the number of files, empty for one file
+     * @param fileSpecification distribution of the files, empty for uniform
+     * @param fileCount number of files to select from
+     * @throws IllegalArgumentException if a specification is invalid
+     */
+    public DistributionSelector(String countSpecification, String fileSpecification, int fileCount) {
+        this.fileCount = fileCount;
+        String countSpec = countSpecification.trim();
+        if (countSpec.isEmpty()) {
+            countSpec = "1"; // $NON-NLS-1$
+        }
+        try {
+            if (countSpec.indexOf('=') >= 0) {
+                String[] entries = countSpec.split(","); // $NON-NLS-1$
+                counts = new int[entries.length];
+                double[] weights = new double[entries.length];
+                for (int i = 0; i < entries.length; i++) {
+                    String[] entry = entries[i].split("="); // $NON-NLS-1$
+                    if (entry.length != 2) {
+                        throw new IllegalArgumentException("Invalid count '" + entries[i] + "' in " + countSpec);
+                    }
+                    counts[i] = checkCount(Integer.parseInt(entry[0].trim()), countSpec);
+                    weights[i] = Double.parseDouble(entry[1].trim());
+                }
+                countTable = new AliasTable(weights);
+                minCount = maxCount = 0;
+            } else {
+                int dash = countSpec.indexOf('-');
+                minCount = checkCount(Integer.parseInt(dash < 0 ? countSpec : countSpec.substring(0, dash).trim()), countSpec);
+                maxCount = checkCount(dash < 0 ? minCount : Integer.parseInt(countSpec.substring(dash + 1).trim()), countSpec);
+                if (maxCount < minCount) {
+                    throw new IllegalArgumentException("Invalid range " + countSpec);
+                }
+                counts = null;
+                countTable = null;
+            }
+            fileTable = createFileTable(fileSpecification.trim(), fileCount);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in " + countSpecification + " or " + fileSpecification, e);
+        }
+    }
+
+    private static int checkCount(int count, String specification) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count in " + specification);
+        }
+        return count;
+    }
+
+    /**
+     * @param specification distribution of the files
+     * @param fileCount number of files
+     * @return the table or null for a uniform distribution
+     */
+    private static AliasTable createFileTable(String specification, int fileCount) {
+        String spec = specification.toLowerCase(Locale.ENGLISH);
+        if (spec.isEmpty() || UNIFORM.equals(spec) || fileCount == 0) {
+            return null;
+        }
+        String arguments = "";
+        int open = spec.indexOf('(');
+        String name = spec;
+        if (open >= 0) {
+            if (!spec.endsWith(")")) { // $NON-NLS-1$
+                throw new IllegalArgumentException("Missing ) in " + specification);
+            }
+            name = spec.substring(0, open).trim();
+            arguments = spec.substring(open + 1, spec.length() - 1).trim();
+        }
+        double[] weights = new double[fileCount];
+        switch (name) {
+        case ZIPF:
+            double exponent = arguments.isEmpty() ? 1 : Double.parseDouble(arguments);
+            for (int k = 0; k < fileCount; k++) {
+                weights[k] = 1 / Math.pow(k + 1, exponent);
+            }
+            break;
+        case WEIGHTS:
+            String[] given = arguments.isEmpty() ? new String[0] : arguments.split(","); // $NON-NLS-1$
+            for (int k = 0; k < fileCount; k++) {
+                weights[k] = k < given.length ? Double.parseDouble(given[k].trim()) : 1;
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown distribution " + specification);
+        }
+        return new AliasTable(weights);
+    }
+
+    @Override
+    public int[] select() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int count = counts != null ? counts[countTable.next(random)]
+                : minCount + random.nextInt(maxCount - minCount + 1);
+        if (fileCount == 0) {
+            return new int[0];
+        }
+        int[] files = new int[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = fileTable == null ? random.nextInt(fileCount) : fileTable.next(random);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.protocol.http.util;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out the files in a fixed order from a cursor shared by all threads, so every file
+ * is sent once per cycle of all files, independent of the number of threads.
+ * <p>
+ * The number of files per request is a fixed number, <code>1</code> by default. The order is
+ * <ul>
+ * <li><code>sequential</code> - the files in their order, round-robin</li>
+ * <li><code>stride(seed)</code> - the files in a permutation given by the seed: starting at an offset,
+ *      every next file is a stride further, which is coprime to the number of files, so every
+ *      file is visited once per cycle. The same seed always gives the same order.</li>
+ * </ul>
+ * The files of consecutive requests follow each other in the order, the next file set is taken by a single
+ * atomic addition to the cursor, without locks or retries.
+ */
+public final class RotationSelector implements AttachmentSelector {
+
+    public static final String SEQUENTIAL = "sequential"; // $NON-NLS-1$
+    public static final String STRIDE = "stride"; // $NON-NLS-1$
+
+    /** number of longs in a cache line, the cursor is placed between two of them */
+    private static final int CACHE_LINE_LONGS = 8;
+
+    /** the cursor on a cache line of its own, so updates do not invalidate the fields read by other threads */
+    private final AtomicLongArray cursor = new AtomicLongArray(CACHE_LINE_LONGS * 2);
+
+    private final int count;
+
+    private final int fileCount;
+
+    private final long offset;
+
+    private final long stride;
+
+    /**
+     * @param countSpecification number of files per request, empty for one file
+     * @param orderSpecification order of the files, empty for sequential
+     * @param fileCount number of files to select from
+     * @throws IllegalArgumentException if a specification is invalid
+     */
+    public RotationSelector(String countSpecification, String orderSpecification, int fileCount) {
+        this.fileCount = fileCount;
+        String countSpec = countSpecification.trim();
+        String spec = orderSpecification.trim().toLowerCase(Locale.ENGLISH);
+        try {
+            count = countSpec.isEmpty() ? 1 : Integer.parseInt(countSpec);
+            if (count < 0) {
+                throw new IllegalArgumentException("Negative count " + countSpec);
+            }
+            String name = spec;
+            String seed = "";
+            int open = spec.indexOf('(');
+            if (open >= 0) {
+                if (!spec.endsWith(")")) { // $NON-NLS-1$
+                    throw new IllegalArgumentException("Missing ) in " + orderSpecification);
+                }
+                name = spec.substring(0, open).trim();
+                seed = spec.substring(open + 1, spec.length() - 1).trim();
+            }
+            if (name.isEmpty() || SEQUENTIAL.equals(name) || fileCount == 0) {
+                offset = 0;
+                stride = 1;
+            } else if (STRIDE.equals(name)) {
+                Random random = new Random(seed.isEmpty() ? 0 : Long.parseLong(seed));
+                offset = random.nextInt(fileCount);
+                stride = coprimeStride(random.nextInt(fileCount), fileCount);
+            } else {
+                throw new IllegalArgumentException("Unknown order " + orderSpecification);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in " + countSpecification + " or " + orderSpecification, e);
+        }
+    }
+
+    /**
+     * @param start candidate stride, between 0 and the number of files - 1
+     * @param fileCount number of files
+     * @return the first stride from the candidate on which is coprime to the number of files
+     */
+    private static long coprimeStride(int start, int fileCount) {
+        long candidate = Math.max(1, start);
+        while (gcd(candidate, fileCount) != 1) {
+            candidate++;
+        }
+        return candidate;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+
+    @Override
+    public int[] select() {
+        int[] files = new int[fileCount == 0 ? 0 : count];
+        if (files.length == 0) {
+            return files;
+        }
+        long position = cursor.getAndAdd(CACHE_LINE_LONGS, count);
+        for (int i = 0; i < files.length; i++) {
+            long step = ((position + i) & Long.MAX_VALUE) % fileCount;
+            files[i] = (int) ((offset + step * stride) % fileCount);
+        }
+        return files;
+    }
+}
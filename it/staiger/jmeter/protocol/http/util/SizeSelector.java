@@ -0,0 +1,152 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.protocol.http.util;
+
+import it.staiger.jmeter.util.ByteSize;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Selects files whose sizes sum up close to a target size per request.
+ * The target is given as size like <code>5MB</code>, or as range like <code>1MB-10MB</code>
+ * from which it is drawn uniformly per request, see {@link ByteSize}.
+ * <p>
+ * The files are sorted by size once. Per request files are drawn at random among those fitting
+ * into the remaining size, found by binary search, until none fits. If adding the smallest file
+ * then gets closer to the target, it is added as well. Empty files are never selected.
+ * <p>
+ * At most {@value #MAX_FILES_PROPERTY} files (default {@value #DEFAULT_MAX_FILES}) are selected per request,
+ * so a large target over small files stays cheap; the request is then smaller than the target and a warning is logged once.
+ */
+public final class SizeSelector implements AttachmentSelector {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    /** JMeter property for the maximum number of files selected per request */
+    public static final String MAX_FILES_PROPERTY = "dynamicpost.targetsize.maxfiles"; // $NON-NLS-1$
+
+    public static final int DEFAULT_MAX_FILES = 1000;
+
+    /** indexes of the non-empty files, ordered by size */
+    private final int[] order;
+
+    /** sizes of the files in {@link #order} */
+    private final long[] sizes;
+
+    private final long minTarget;
+
+    private final long maxTarget;
+
+    private final int maxFiles;
+
+    /** whether reaching {@link #maxFiles} has been logged */
+    private volatile boolean capLogged;
+
+    /**
+     * @param target target size or range of sizes
+     * @param fileSizes size of every file
+     * @throws IllegalArgumentException if the target is invalid
+     */
+    public SizeSelector(String target, final long[] fileSizes) {
+        String spec = target.trim();
+        int dash = spec.indexOf('-');
+        try {
+            minTarget = ByteSize.parse(dash < 0 ? spec : spec.substring(0, dash));
+            maxTarget = dash < 0 ? minTarget : ByteSize.parse(spec.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid target size " + target, e);
+        }
+        if (maxTarget < minTarget) {
+            throw new IllegalArgumentException("Invalid range " + target);
+        }
+        maxFiles = JMeterUtils.getPropDefault(MAX_FILES_PROPERTY, DEFAULT_MAX_FILES);
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("Invalid " + MAX_FILES_PROPERTY + " " + maxFiles);
+        }
+
+        Integer[] indexes = new Integer[fileSizes.length];
+        int count = 0;
+        for (int i = 0; i < fileSizes.length; i++) {
+            if (fileSizes[i] > 0) {
+                indexes[count++] = Integer.valueOf(i);
+            }
+        }
+        Arrays.sort(indexes, 0, count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long difference = fileSizes[a.intValue()] - fileSizes[b.intValue()];
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        order = new int[count];
+        sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = indexes[i].intValue();
+            sizes[i] = fileSizes[order[i]];
+        }
+    }
+
+    @Override
+    public int[] select() {
+        if (order.length == 0) {
+            return new int[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long remaining = minTarget == maxTarget ? minTarget
+                // the bound is exclusive, the largest size can only be drawn if it does not overflow
+                : random.nextLong(minTarget, maxTarget == Long.MAX_VALUE ? maxTarget : maxTarget + 1);
+        int[] selected = new int[8];
+        int count = 0;
+        int fitting;
+        while ((fitting = countFitting(remaining)) > 0) {
+            if (count == maxFiles) {
+                if (!capLogged) {
+                    capLogged = true;
+                    log.warn("Selected " + maxFiles + " files " + remaining + " bytes short of the target size,"
+                            + " increase " + MAX_FILES_PROPERTY + " or use larger files");
+                }
+                return Arrays.copyOf(selected, count);
+            }
+            int pick = random.nextInt(fitting);
+            if (count == selected.length) {
+                selected = Arrays.copyOf(selected, count * 2);
+            }
+            selected[count++] = order[pick];
+            remaining -= sizes[pick];
+        }
+        if (remaining > 0 && count < maxFiles && sizes[0] - remaining < remaining) {
+            if (count == selected.length) {
+                selected = Arrays.copyOf(selected, count + 1);
+            }
+            selected[count++] = order[0];
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * @param remaining remaining size
+     * @return number of files not larger than the remaining size, they are the first ones of {@link #order}
+     */
+    private int countFitting(long remaining) {
+        int low = 0;
+        int high = sizes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sizes[middle] <= remaining) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads a file with an {@link AsynchronousFileChannel} into heap or direct buffers,
+ * split into segments like {@link FileContent} expects, and computes the digests on the way.
+ * The reads are issued one after the other without blocking any thread while waiting for the disk.
+ * The result is passed to a {@link CompletionHandler}, called by a thread of the channels pool.
+ */
+final class AsyncFileLoader implements CompletionHandler<Integer, Void> {
+
+    private final File file;
+
+    private final AsynchronousFileChannel channel;
+
+    private final ByteBuffer[] segments;
+
+    private final ContentDigest[] digests;
+
+    private final CompletionHandler<FileContent, Void> handler;
+
+    /** index of the segment being read */
+    private int segment;
+
+    /** position in the file of the next read */
+    private long position;
+
+    private AsyncFileLoader(File file, AsynchronousFileChannel channel, boolean direct,
+            ContentDigest[] digests, CompletionHandler<FileContent, Void> handler) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.digests = digests;
+        this.handler = handler;
+        long size = channel.size();
+        segments = new ByteBuffer[(int) Math.max(1,
+                (size + FileContent.MAX_SEGMENT_SIZE - 1) / FileContent.MAX_SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            int length = (int) Math.min(FileContent.MAX_SEGMENT_SIZE, size - (long) i * FileContent.MAX_SEGMENT_SIZE);
+            segments[i] = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        }
+    }
+
+    /**
+     * Starts loading a file. Failures to open the file are passed to the handler as well.
+     *
+     * @param file file to be loaded
+     * @param direct whether to read into direct buffers
+     * @param algorithms digest algorithms to be computed
+     * @param handler receives the content or the failure
+     */
+    static void load(File file, boolean direct, String[] algorithms, CompletionHandler<FileContent, Void> handler) {
+        AsynchronousFileChannel channel = null;
+        AsyncFileLoader loader;
+        try {
+            ContentDigest[] digests = new ContentDigest[algorithms.length];
+            for (int i = 0; i < digests.length; i++) {
+                digests[i] = new ContentDigest(algorithms[i]);
+            }
+            channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+            loader = new AsyncFileLoader(file, channel, direct, digests, handler);
+        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+            IOUtils.closeQuietly(channel);
+            handler.failed(e, null);
+            return;
+        }
+        loader.readNext();
+    }
+
+    /**
+     * Issues the read of the rest of the current segment, or completes the load if all are full.
+     */
+    private void readNext() {
+        while (segment < segments.length && !segments[segment].hasRemaining()) {
+            segment++;
+        }
+        if (segment == segments.length) {
+            complete();
+        } else {
+            channel.read(segments[segment], position, null, this);
+        }
+    }
+
+    /**
+     * Digests the bytes just read and issues the next read.
+     */
+    @Override
+    public void completed(Integer read, Void attachment) {
+        int count = read.intValue();
+        if (count < 0) {
+            failed(new EOFException(file.getPath() + " was truncated while reading"), null);
+            return;
+        }
+        ByteBuffer buffer = segments[segment];
+        for (ContentDigest digest : digests) {
+            ByteBuffer digested = buffer.duplicate();
+            digested.limit(buffer.position());
+            digested.position(buffer.position() - count);
+            digest.update(digested);
+        }
+        position += count;
+        try {
+            readNext();
+        } catch (RuntimeException e) {
+            failed(e, null);
+        }
+    }
+
+    @Override
+    public void failed(Throwable e, Void attachment) {
+        IOUtils.closeQuietly(channel);
+        handler.failed(e, null);
+    }
+
+    /**
+     * Passes the content to the handler.
+     */
+    private void complete() {
+        IOUtils.closeQuietly(channel);
+        Map<String, String> hexDigests = new HashMap<>();
+        for (ContentDigest digest : digests) {
+            hexDigests.put(digest.getAlgorithm(), digest.toHex());
+        }
+        for (ByteBuffer buffer : segments) {
+            buffer.flip();
+        }
+        handler.completed(new FileContent(segments, hexDigests), null);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import it.staiger.jmeter.util.Crc32c;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Computes one digest or checksum of a files content, fed incrementally while the file is loaded.
+ * Supports all {@link MessageDigest} algorithms and {@value FileContentServer#CRC32C}.
+ */
+final class ContentDigest {
+
+    private final String algorithm;
+
+    private final MessageDigest messageDigest;
+
+    private final Crc32c checksum;
+
+    /**
+     * @param algorithm name of the algorithm, e.g. SHA-256 or CRC32C
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     */
+    ContentDigest(String algorithm) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        if (FileContentServer.CRC32C.equalsIgnoreCase(algorithm)) {
+            messageDigest = null;
+            checksum = new Crc32c();
+        } else {
+            messageDigest = MessageDigest.getInstance(algorithm);
+            checksum = null;
+        }
+    }
+
+    /**
+     * @return the name of the algorithm
+     */
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Updates the digest with the remaining bytes of the buffer.
+     *
+     * @param buffer buffer to read, its position is moved to the limit
+     */
+    void update(ByteBuffer buffer) {
+        if (checksum != null) {
+            checksum.update(buffer);
+        } else {
+            messageDigest.update(buffer);
+        }
+    }
+
+    /**
+     * @return the hex encoded digest of all bytes passed to {@link #update(ByteBuffer)}
+     */
+    String toHex() {
+        if (checksum != null) {
+            return String.format("%08x", Long.valueOf(checksum.getValue())); // $NON-NLS-1$
+        }
+        return new String(Hex.encodeHex(messageDigest.digest()));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jmeter.threads.JMeterVariables;
+
+/**
+ * A file content parsed once into static segments and variable slots.
+ * Slots are written as <code>${name}</code> and filled with the value of the JMeter variable
+ * of that name when the template is written, so only the values are encoded per request.
+ * Slots of undefined variables are written unchanged, like JMeter does.
+ * <p>
+ * Only plain variable names are supported, functions are not evaluated.
+ * Templates are created by {@link FileContentServer#getTemplate(String)}.
+ * <p>
+ * The content is scanned and written in place, so contents stored outside of the heap stay there.
+ * Contents split into several segments, and binary contents which have a zero byte among their
+ * first {@value #BINARY_CHECK_SIZE} bytes, are not scanned and get no slots.
+ */
+public final class ContentTemplate {
+
+    private static final byte DOLLAR = '$';
+
+    private static final byte OPEN = '{';
+
+    private static final byte CLOSE = '}';
+
+    private static final Charset ASCII = Charset.forName("US-ASCII"); // $NON-NLS-1$
+
+    /** number of bytes checked for a zero byte, like git does to tell binary files */
+    static final int BINARY_CHECK_SIZE = 8000;
+
+    /** content the template was parsed from */
+    private final FileContent source;
+
+    /** the only segment of the content, referenced by the static segments by absolute index, null without slots */
+    private final ByteBuffer text;
+
+    /** start of each static segment, one more than there are slots */
+    private final int[] starts;
+
+    /** end of each static segment */
+    private final int[] ends;
+
+    /** variable name of each slot */
+    private final String[] names;
+
+    /** the slots as written in the content, for undefined variables */
+    private final byte[][] placeholders;
+
+    /** number of bytes of all static segments */
+    private final long staticLength;
+
+    private ContentTemplate(FileContent source, ByteBuffer text, int[] starts, int[] ends, String[] names) {
+        this.source = source;
+        this.text = text;
+        this.starts = starts;
+        this.ends = ends;
+        this.names = names;
+        this.placeholders = new byte[names.length][];
+        long length = names.length == 0 ? source.length() : 0;
+        for (int i = 0; i < starts.length && names.length > 0; i++) {
+            length += ends[i] - starts[i];
+        }
+        for (int i = 0; i < names.length; i++) {
+            placeholders[i] = ("${" + names[i] + "}").getBytes(ASCII); // $NON-NLS-1$ $NON-NLS-2$
+        }
+        this.staticLength = length;
+    }
+
+    /**
+     * Parses a content into segments and slots, without copying it.
+     *
+     * @param source content to be parsed, the encoding must be ASCII compatible, e.g. UTF-8 or ISO-8859-1
+     * @return the template, without slots if the content is split into several segments or binary
+     */
+    static ContentTemplate parse(FileContent source) {
+        if (source.getSegmentCount() > 1) {
+            return new ContentTemplate(source, null, new int[0], new int[0], new String[0]);
+        }
+        ByteBuffer text = source.getSegment(0);
+        int limit = text.limit();
+        if (isBinary(text)) {
+            return new ContentTemplate(source, null, new int[0], new int[0], new String[0]);
+        }
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = text.position();
+        for (int i = start; i < limit - 1; i++) {
+            if (text.get(i) != DOLLAR || text.get(i + 1) != OPEN) {
+                continue;
+            }
+            int close = indexOfName(text, i + 2);
+            if (close < 0) {
+                continue;
+            }
+            starts.add(Integer.valueOf(start));
+            ends.add(Integer.valueOf(i));
+            byte[] name = new byte[close - i - 2];
+            for (int j = 0; j < name.length; j++) {
+                name[j] = text.get(i + 2 + j);
+            }
+            names.add(new String(name, ASCII));
+            start = close + 1;
+            i = close;
+        }
+        starts.add(Integer.valueOf(start));
+        ends.add(Integer.valueOf(limit));
+        return new ContentTemplate(source, text, toArray(starts), toArray(ends), names.toArray(new String[names.size()]));
+    }
+
+    /**
+     * @param text content between position and limit
+     * @return true if there is a zero byte among the first {@value #BINARY_CHECK_SIZE} bytes
+     */
+    private static boolean isBinary(ByteBuffer text) {
+        int end = text.position() + Math.min(BINARY_CHECK_SIZE, text.remaining());
+        for (int i = text.position(); i < end; i++) {
+            if (text.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param text content
+     * @param from position behind the opening brace
+     * @return position of the closing brace of a valid variable name, or -1 if there is none
+     */
+    private static int indexOfName(ByteBuffer text, int from) {
+        for (int i = from; i < text.limit(); i++) {
+            byte b = text.get(i);
+            if (b == CLOSE) {
+                return i > from ? i : -1;
+            }
+            if (!(b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9'
+                    || b == '_' || b == '-' || b == '.')) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i).intValue();
+        }
+        return array;
+    }
+
+    /**
+     * @return the content the template was parsed from
+     */
+    public FileContent getSource() {
+        return source;
+    }
+
+    /**
+     * @return number of variable slots
+     */
+    public int getSlotCount() {
+        return names.length;
+    }
+
+    /**
+     * Encodes the current values of the slots.
+     *
+     * @param variables variables of the current thread
+     * @param charset encoding of the values
+     * @return the encoded value of each slot, to be passed to {@link #length(byte[][])} and {@link #writeTo(OutputStream, byte[][])}
+     */
+    public byte[][] fill(JMeterVariables variables, Charset charset) {
+        byte[][] values = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            String value = variables == null ? null : variables.get(names[i]);
+            values[i] = value == null ? placeholders[i] : value.getBytes(charset);
+        }
+        return values;
+    }
+
+    /**
+     * @param values values returned by {@link #fill(JMeterVariables, Charset)}
+     * @return number of bytes written with these values
+     */
+    public long length(byte[][] values) {
+        long length = staticLength;
+        for (byte[] value : values) {
+            length += value.length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the static segments and the values in between.
+     *
+     * @param out stream to write to
+     * @param values values returned by {@link #fill(JMeterVariables, Charset)}
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out, byte[][] values) throws IOException {
+        if (names.length == 0) {
+            source.writeTo(out);
+            return;
+        }
+        for (int i = 0; i < names.length; i++) {
+            writeSegment(out, i);
+            out.write(values[i]);
+        }
+        writeSegment(out, names.length);
+    }
+
+    /**
+     * @param out stream to write to
+     * @param index index of the static segment
+     * @throws IOException if writing fails
+     */
+    private void writeSegment(OutputStream out, int index) throws IOException {
+        ByteBuffer segment = text.duplicate();
+        segment.position(starts[index]);
+        segment.limit(ends[index]);
+        FileContent.writeTo(segment, out);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Many small files packed into one file, which is mapped into memory as a whole.
+ * Entries are served as slices of that mapping, so mounting a pack needs a single
+ * file descriptor and no reads besides the index.
+ * <p>
+ * Layout, all numbers big endian:
+ * <pre>
+ * header   magic "JMPK", int version, int entry count, long index offset
+ * data     the contents of all entries, one after the other
+ * index    per entry: long offset, int length, then name, MIME type and SHA-256 hex digest,
+ *          each as unsigned short byte count followed by the UTF-8 bytes
+ * </pre>
+ * Names are the paths relative to the packed directory, with slashes as separator.
+ * Packs are created by {@link CorpusPackBuilder}.
+ */
+public final class CorpusPack {
+
+    /** magic number at the start of every pack */
+    static final int MAGIC = 0x4A4D504B; // "JMPK"
+
+    /** current version of the layout */
+    static final int VERSION = 1;
+
+    /** length of the header */
+    static final int HEADER_LENGTH = 4 + 4 + 4 + 8;
+
+    static final Charset UTF8 = Charset.forName("UTF-8"); // $NON-NLS-1$
+
+    private final File file;
+
+    private final MappedByteBuffer mapping;
+
+    private final String[] names;
+
+    private final String[] mimeTypes;
+
+    private final String[] digests;
+
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    private final Map<String, Integer> indexes;
+
+    /** contents created on first request */
+    private final AtomicReferenceArray<FileContent> contents;
+
+    private CorpusPack(File file, MappedByteBuffer mapping, int count) {
+        this.file = file;
+        this.mapping = mapping;
+        this.names = new String[count];
+        this.mimeTypes = new String[count];
+        this.digests = new String[count];
+        this.offsets = new long[count];
+        this.lengths = new int[count];
+        this.indexes = new HashMap<>(count * 4 / 3 + 1);
+        this.contents = new AtomicReferenceArray<>(count);
+    }
+
+    /**
+     * Maps the pack into memory and reads its index.
+     *
+     * @param file pack file
+     * @return the opened pack
+     * @throws IOException if the file cannot be read or is not a valid pack
+     */
+    public static CorpusPack open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r"); // $NON-NLS-1$
+        MappedByteBuffer mapping;
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file.getPath() + " is too large to be mapped at once");
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+
+        try {
+            if (mapping.remaining() < HEADER_LENGTH || mapping.getInt(0) != MAGIC) {
+                throw new IOException(file.getPath() + " is not a corpus pack");
+            }
+            if (mapping.getInt(4) != VERSION) {
+                throw new IOException(file.getPath() + " has unsupported version " + mapping.getInt(4));
+            }
+            int count = mapping.getInt(8);
+            long indexOffset = mapping.getLong(12);
+            if (count < 0 || indexOffset < HEADER_LENGTH || indexOffset > mapping.limit()) {
+                throw new IOException(file.getPath() + " has a corrupt header");
+            }
+
+            CorpusPack pack = new CorpusPack(file, mapping, count);
+            ByteBuffer index = mapping.duplicate();
+            index.position((int) indexOffset);
+            for (int i = 0; i < count; i++) {
+                pack.offsets[i] = index.getLong();
+                pack.lengths[i] = index.getInt();
+                pack.names[i] = readString(index);
+                pack.mimeTypes[i] = readString(index);
+                pack.digests[i] = readString(index);
+                if (pack.offsets[i] < HEADER_LENGTH || pack.lengths[i] < 0
+                        || pack.offsets[i] + pack.lengths[i] > indexOffset) {
+                    throw new IOException(file.getPath() + " has a corrupt entry " + pack.names[i]);
+                }
+                pack.indexes.put(pack.names[i], Integer.valueOf(i));
+            }
+            return pack;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(file.getPath() + " has a truncated index", e);
+        }
+    }
+
+    /**
+     * @param buffer buffer positioned at a string
+     * @return the string read, the buffer is positioned behind it
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * @return the pack file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param name name of an entry
+     * @return index of the entry or -1 if there is none with this name
+     */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index.intValue();
+    }
+
+    /**
+     * @param index index of an entry
+     * @return the name of the entry, its path relative to the packed directory
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index index of an entry
+     * @return the MIME type of the entry
+     */
+    public String getMimeType(int index) {
+        return mimeTypes[index];
+    }
+
+    /**
+     * @param index index of an entry
+     * @return the hex encoded SHA-256 digest of the entry
+     */
+    public String getDigest(int index) {
+        return digests[index];
+    }
+
+    /**
+     * @param index index of an entry
+     * @return the content of the entry, a slice of the mapping
+     */
+    public FileContent getContent(int index) {
+        FileContent content = contents.get(index);
+        if (content == null) {
+            ByteBuffer slice = mapping.duplicate();
+            slice.position((int) offsets[index]);
+            slice.limit((int) offsets[index] + lengths[index]);
+            content = new FileContent(slice.slice(),
+                    Collections.singletonMap(FileContentServer.SHA256, digests[index]));
+            if (!contents.compareAndSet(index, null, content)) {
+                content = contents.get(index);
+            }
+        }
+        return content;
+    }
+}
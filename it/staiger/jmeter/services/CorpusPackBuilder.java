@@ -0,0 +1,226 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Creates a {@link CorpusPack} from the files of a directory tree.
+ * Runs without a JMeter test, from the JMeter directory:
+ * <pre>
+ * java -cp "lib/*:lib/ext/*" it.staiger.jmeter.services.CorpusPackBuilder
+ *      &lt;directory&gt; &lt;pack file&gt; [glob] [default MIME type]
+ * </pre>
+ */
+public final class CorpusPackBuilder {
+
+    /** MIME type of files whose type cannot be guessed from their name */
+    public static final String DEFAULT_MIME_TYPE = "application/octet-stream"; // $NON-NLS-1$
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CorpusPackBuilder() {
+    }
+
+    /**
+     * Packs all files of the directory tree matching the glob, sorted by their relative path.
+     *
+     * @param directory directory to be packed
+     * @param glob glob pattern of the files, see {@link FileContentServer#listDirectory(String, String)}
+     * @param defaultMimeType MIME type of files whose type cannot be guessed from their name
+     * @param pack pack file to be written, it is replaced if it exists
+     * @return number of packed files
+     * @throws IOException if a file cannot be read, the pack cannot be written or would exceed 2 GB;
+     *          the pack is checked for its size before it is written and deleted if writing fails
+     */
+    public static int build(File directory, String glob, String defaultMimeType, File pack) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException(directory.getPath() + " is not a directory");
+        }
+        String pattern = glob == null || glob.trim().isEmpty() ? "*" : glob.trim(); // $NON-NLS-1$
+        List<String> names;
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            names = pool.invoke(new DirectoryScan(directory.toPath(), pattern));
+        } finally {
+            pool.shutdown();
+        }
+        Collections.sort(names);
+        // do not pack the pack itself, if it is written into the directory
+        for (Iterator<String> name = names.iterator(); name.hasNext();) {
+            if (new File(directory, name.next()).getCanonicalFile().equals(pack.getCanonicalFile())) {
+                name.remove();
+            }
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(FileContentServer.SHA256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        int count = names.size();
+        String[] mimeTypes = new String[count];
+        long size = CorpusPack.HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            String mimeType = URLConnection.guessContentTypeFromName(names.get(i));
+            mimeTypes[i] = mimeType == null ? defaultMimeType : mimeType;
+            long length = new File(directory, names.get(i)).length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(names.get(i) + " is too large to be packed");
+            }
+            // data, offset and length, name, MIME type and hex digest
+            size += length + 12 + stringLength(names.get(i)) + stringLength(mimeTypes[i])
+                    + 2 + 2 * digest.getDigestLength();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Pack of " + count + " files would have " + size
+                    + " bytes, only up to 2 GB can be mapped. Split the corpus.");
+        }
+
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        String[] digests = new String[count];
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = CorpusPack.HEADER_LENGTH;
+        long indexOffset;
+
+        boolean written = false;
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pack), BUFFER_SIZE));
+        try {
+            output.write(new byte[CorpusPack.HEADER_LENGTH]);
+            for (int i = 0; i < count; i++) {
+                offsets[i] = position;
+                InputStream input = new FileInputStream(new File(directory, names.get(i)));
+                try {
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        output.write(buffer, 0, read);
+                        digest.update(buffer, 0, read);
+                        position += read;
+                    }
+                } finally {
+                    IOUtils.closeQuietly(input);
+                }
+                if (position - offsets[i] > Integer.MAX_VALUE) {
+                    throw new IOException(names.get(i) + " is too large to be packed");
+                }
+                lengths[i] = (int) (position - offsets[i]);
+                digests[i] = new String(Hex.encodeHex(digest.digest()));
+            }
+
+            indexOffset = position;
+            for (int i = 0; i < count; i++) {
+                output.writeLong(offsets[i]);
+                output.writeInt(lengths[i]);
+                position += 12;
+                position += writeString(output, names.get(i));
+                position += writeString(output, mimeTypes[i]);
+                position += writeString(output, digests[i]);
+            }
+            // files may have grown since they were checked
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Pack of " + count + " files has " + position
+                        + " bytes, only up to 2 GB can be mapped. Split the corpus.");
+            }
+            output.close();
+            writeHeader(pack, count, indexOffset);
+            written = true;
+        } finally {
+            IOUtils.closeQuietly(output);
+            if (!written && !pack.delete()) {
+                pack.deleteOnExit();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param text string to be written by {@link #writeString(DataOutputStream, String)}
+     * @return number of bytes it takes
+     */
+    private static int stringLength(String text) {
+        return 2 + (text == null ? "" : text).getBytes(CorpusPack.UTF8).length;
+    }
+
+    /**
+     * Writes a string as unsigned short byte count followed by the UTF-8 bytes.
+     *
+     * @param output stream to write to
+     * @param text string to write
+     * @return number of bytes written
+     * @throws IOException if the string is too long or cannot be written
+     */
+    private static int writeString(DataOutputStream output, String text) throws IOException {
+        byte[] bytes = (text == null ? "" : text).getBytes(CorpusPack.UTF8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Name too long: " + text);
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+        return 2 + bytes.length;
+    }
+
+    /**
+     * Writes the header, once the index offset is known.
+     *
+     * @param pack pack file
+     * @param count number of entries
+     * @param indexOffset position of the index
+     * @throws IOException if the header cannot be written
+     */
+    private static void writeHeader(File pack, int count, long indexOffset) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(pack, "rw"); // $NON-NLS-1$
+        try {
+            output.writeInt(CorpusPack.MAGIC);
+            output.writeInt(CorpusPack.VERSION);
+            output.writeInt(count);
+            output.writeLong(indexOffset);
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+    }
+
+    /**
+     * Creates a pack from the command line.
+     *
+     * @param args directory, pack file, optional glob and default MIME type
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: CorpusPackBuilder <directory> <pack file> [glob] [default MIME type]"); // $NON-NLS-1$
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            int count = build(new File(args[0]), args.length > 2 ? args[2] : null,
+                    args.length > 3 ? args[3] : DEFAULT_MIME_TYPE, new File(args[1]));
+            System.out.println("Packed " + count + " files into " + args[1] + " ("
+                    + new File(args[1]).length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("Could not create pack: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Lists the files of a directory tree matching a glob pattern.
+ * Every subdirectory is listed by its own task, so large trees are walked in parallel
+ * when invoked in a {@link java.util.concurrent.ForkJoinPool}.
+ * <p>
+ * Patterns without a slash are matched against the file name in any subdirectory,
+ * patterns with a slash against the path relative to the root, e.g. {@code images/*.png}.
+ * Symbolic links to directories are not followed.
+ */
+final class DirectoryScan extends RecursiveTask<List<String>> {
+
+    private static final long serialVersionUID = 240L;
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private final Path root;
+
+    private final Path directory;
+
+    private final PathMatcher matcher;
+
+    private final boolean matchName;
+
+    /**
+     * @param root directory to be listed
+     * @param glob glob pattern of the files to be listed
+     */
+    DirectoryScan(Path root, String glob) {
+        this(root, root, FileSystems.getDefault().getPathMatcher("glob:" + glob), // $NON-NLS-1$
+                glob.indexOf('/') < 0);
+    }
+
+    private DirectoryScan(Path root, Path directory, PathMatcher matcher, boolean matchName) {
+        this.root = root;
+        this.directory = directory;
+        this.matcher = matcher;
+        this.matchName = matchName;
+    }
+
+    /**
+     * @return the matching files relative to the root, with slashes as separator, in no particular order
+     */
+    @Override
+    protected List<String> compute() {
+        List<String> matches = new ArrayList<>();
+        List<DirectoryScan> subdirectories = new ArrayList<>();
+        DirectoryStream<Path> stream = null;
+        try {
+            stream = Files.newDirectoryStream(directory);
+            for (Path entry : stream) {
+                BasicFileAttributes attributes =
+                        Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isSymbolicLink()) {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    if (attributes.isDirectory()) {
+                        log.debug("not following link " + entry);
+                        continue;
+                    }
+                }
+                if (attributes.isDirectory()) {
+                    DirectoryScan scan = new DirectoryScan(root, entry, matcher, matchName);
+                    scan.fork();
+                    subdirectories.add(scan);
+                } else if (attributes.isRegularFile()) {
+                    Path relative = root.relativize(entry);
+                    if (matcher.matches(matchName ? relative.getFileName() : relative)) {
+                        matches.add(toSlashes(relative));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list " + directory, e);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+        for (DirectoryScan scan : subdirectories) {
+            matches.addAll(scan.join());
+        }
+        return matches;
+    }
+
+    /**
+     * @param relative relative path
+     * @return the path with slashes as separator, independent of the platform
+     */
+    private static String toSlashes(Path relative) {
+        StringBuilder path = new StringBuilder();
+        for (Path name : relative) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(name.toString());
+        }
+        return path.toString();
+    }
+}
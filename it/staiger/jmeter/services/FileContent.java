@@ -0,0 +1,256 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Content of a file as held by {@link FileContentServer}.
+ * The content is stored in {@link ByteBuffer}s, which may be on the heap,
+ * outside of it (direct buffers) or memory mapped regions of the file.
+ * Contents larger than {@value #MAX_SEGMENT_SIZE} bytes are split into several segments,
+ * as a single buffer cannot hold more than 2 GB.
+ * It must not be changed after creation.
+ * <p>
+ * Digests of the content are computed once and kept with the content.
+ */
+public final class FileContent {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    /** maximum number of bytes in one segment */
+    public static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    /** size of the chunks used to copy content from direct buffers into streams */
+    private static final int TRANSFER_SIZE = 64 * 1024;
+
+    /** the segments in order, always at least one */
+    private final ByteBuffer[] segments;
+
+    private final long length;
+
+    /** hex encoded digests by upper case algorithm name */
+    private final ConcurrentMap<String, String> digests = new ConcurrentHashMap<>();
+
+    /**
+     * @param content buffer holding the whole content between position and limit
+     */
+    FileContent(ByteBuffer content) {
+        this(new ByteBuffer[] { content });
+    }
+
+    /**
+     * @param segments buffers holding the content between position and limit, in order
+     */
+    FileContent(ByteBuffer[] segments) {
+        if (segments.length == 0) {
+            throw new IllegalArgumentException("Content needs at least one segment");
+        }
+        long total = 0;
+        for (ByteBuffer segment : segments) {
+            total += segment.remaining();
+        }
+        this.segments = segments;
+        this.length = total;
+    }
+
+    /**
+     * @param content buffer holding the whole content between position and limit
+     * @param digests hex encoded digests computed while loading the content, by algorithm name
+     */
+    FileContent(ByteBuffer content, Map<String, String> digests) {
+        this(new ByteBuffer[] { content }, digests);
+    }
+
+    /**
+     * @param segments buffers holding the content between position and limit, in order
+     * @param digests hex encoded digests computed while loading the content, by algorithm name
+     */
+    FileContent(ByteBuffer[] segments, Map<String, String> digests) {
+        this(segments);
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            this.digests.put(digest.getKey().toUpperCase(Locale.ENGLISH), digest.getValue());
+        }
+    }
+
+    /**
+     * Wraps a byte array, which must not be changed afterwards.
+     *
+     * @param content the content
+     * @return content backed by the given array
+     */
+    public static FileContent wrap(byte[] content) {
+        return new FileContent(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * @return number of bytes of the content
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return true if the content is stored outside of the java heap
+     */
+    public boolean isDirect() {
+        return segments[0].isDirect();
+    }
+
+    /**
+     * @return true if the content is a memory mapped region of the file
+     */
+    public boolean isMapped() {
+        return segments[0] instanceof MappedByteBuffer;
+    }
+
+    /**
+     * @return number of segments the content is split into
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Get a read only view of the content,
+     * which can be read independently of other threads.
+     *
+     * @return buffer positioned at the start of the content
+     * @throws IllegalStateException if the content is split into several segments, see {@link #getBuffers()}
+     */
+    public ByteBuffer getBuffer() {
+        if (segments.length > 1) {
+            throw new IllegalStateException("Content of " + length + " bytes is split into "
+                    + segments.length + " segments");
+        }
+        return segments[0].asReadOnlyBuffer();
+    }
+
+    /**
+     * @param index index of the segment
+     * @return a view of the segment which shares its backing array, if any; it must not be written to
+     */
+    ByteBuffer getSegment(int index) {
+        return segments[index].duplicate();
+    }
+
+    /**
+     * Get read only views of all segments of the content,
+     * which can be read independently of other threads.
+     *
+     * @return buffers positioned at the start of their segment, in order
+     */
+    public ByteBuffer[] getBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[segments.length];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = segments[i].asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * Get the content as byte array.
+     * Heap stored content is returned without copying and must not be modified,
+     * content stored outside of the heap is copied into a new array.
+     *
+     * @return Byte Array of content
+     * @throws IllegalStateException if the content is too large for an array, see {@link #writeTo(OutputStream)}
+     */
+    public byte[] getBytes() {
+        ByteBuffer content = segments[0];
+        if (segments.length == 1 && content.hasArray() && content.arrayOffset() == 0 && content.position() == 0
+                && content.remaining() == content.array().length) {
+            return content.array();
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Content of " + length + " bytes does not fit into an array");
+        }
+        byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        for (ByteBuffer segment : segments) {
+            int remaining = segment.remaining();
+            segment.duplicate().get(bytes, offset, remaining);
+            offset += remaining;
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the hex encoded digest of the content.
+     * It is computed on the first request, unless it was computed while loading already.
+     *
+     * @param algorithm MD5, SHA-1, SHA-256, SHA-512, CRC32C or any other {@link java.security.MessageDigest} algorithm
+     * @return hex encoded digest or null if the algorithm is not supported
+     */
+    public String getDigest(String algorithm) {
+        String key = algorithm.toUpperCase(Locale.ENGLISH);
+        String digest = digests.get(key);
+        if (digest == null) {
+            synchronized (this) { // compute each digest only once
+                digest = digests.get(key);
+                if (digest == null) {
+                    try {
+                        ContentDigest contentDigest = new ContentDigest(key);
+                        for (ByteBuffer segment : getBuffers()) {
+                            contentDigest.update(segment);
+                        }
+                        digest = contentDigest.toHex();
+                        digests.put(key, digest);
+                    } catch (NoSuchAlgorithmException e) {
+                        log.error("Unsupported digest algorithm " + algorithm, e);
+                    }
+                }
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Writes the content to the stream without copying it into a heap array first,
+     * one segment after the other.
+     *
+     * @param out stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (ByteBuffer segment : segments) {
+            writeTo(segment.duplicate(), out);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a stream,
+     * using a small transfer buffer for direct buffers.
+     *
+     * @param buffer buffer to read from, its position will be changed
+     * @param out stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    static void writeTo(ByteBuffer buffer, OutputStream out) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(TRANSFER_SIZE, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int len = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, len);
+            out.write(chunk, 0, len);
+        }
+    }
+}
@@ -8,33 +8,257 @@ package it.staiger.jmeter.services;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import it.staiger.jmeter.util.StripedCounter;
 
-import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 import org.apache.jmeter.services.FileServer;
+import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
 /**
  * Only to be used with Files from {@link org.apache.jmeter.services.FileServer} class!
+ * Paths are resolved by the FileServer once and the resolution is kept until {@link #clearFiles()},
+ * so repeated requests cost a single lookup.
+ * <p>
+ * Thread safe: every file is loaded exactly once, by the first thread requesting it.
+ * Threads requesting the same file meanwhile wait for that load to finish,
+ * requests for already loaded files do not lock at all.
+ * <p>
+ * Contents are stored on the heap by default. Setting the JMeter property
+ * {@value #STORAGE_PROPERTY} to {@code direct} stores them in direct buffers
+ * outside of the heap instead, to keep large corpora away from the garbage collector.
+ * Files of at least {@value #MMAP_THRESHOLD_PROPERTY} bytes are memory mapped instead,
+ * so their data is held only once in the page cache of the operating system.
+ * <p>
+ * The bytes held can be limited by {@value #MAX_BYTES_PROPERTY}. When the limit is exceeded,
+ * the least recently used files are evicted and will be loaded again on their next use.
+ * <p>
+ * Digests are kept with the content. The algorithms listed in {@value #DIGESTS_PROPERTY}
+ * are computed while the file is read, any other on its first request.
+ * <p>
+ * The files used by the plugins test elements are loaded in parallel at test start
+ * by {@link #reserveFiles(Collection)}, see {@value #PREWARM_THREADS_PROPERTY}.
+ * Whole directory trees can be reserved by {@link #reserveDirectory(String, String)}.
+ * <p>
+ * Entries of a {@link CorpusPack} are addressed as <code>pack file{@value #PACK_SEPARATOR}entry name</code>.
+ * The pack is mounted on the first request and its entries are served as slices of one mapping,
+ * they do not count against {@value #MAX_BYTES_PROPERTY}.
+ * <p>
+ * Paths starting with <code>synthetic:</code> denote contents generated in memory,
+ * e.g. <code>synthetic:size=5MB,seed=42,pattern=random|text|zeros</code>.
+ * They are generated once and kept until the files are cleared, without counting against {@value #MAX_BYTES_PROPERTY}.
+ * <p>
+ * With {@value #DEDUPLICATE_PROPERTY} enabled, files with identical content (same SHA-256)
+ * share one content instance, while keeping their own entries. Eviction removes all entries
+ * of a shared content together, as its bytes are freed only by the last one.
+ * <p>
+ * With {@value #ASYNC_PROPERTY} enabled, files are read by {@link java.nio.channels.AsynchronousFileChannel}s.
+ * Reserving a file only starts its read, see {@link #reserveFileAsync(String)}, and requests wait
+ * for their own files only. Files are never mapped in this mode.
+ * <p>
+ * With {@value #WATCH_PROPERTY} enabled, the directories of cached files are watched.
+ * Changed files are reloaded in the background and replace the old content atomically,
+ * samplers still sending the old content are not blocked.
+ * <p>
+ * Statistics are available via JMX as {@value #MBEAN_NAME}, see {@link FileContentServerMXBean}.
  */
-public class FileContentServer {
+public class FileContentServer implements FileContentServerMXBean {
 
     private static final Logger log = LoggingManager.getLoggerForClass();
 
+    /** JMeter property to select where file contents are stored: heap or direct */
+    public static final String STORAGE_PROPERTY = "filecontentserver.storage"; // $NON-NLS-1$
+
+    public static final String STORAGE_HEAP = "heap"; // $NON-NLS-1$
+    public static final String STORAGE_DIRECT = "direct"; // $NON-NLS-1$
+
+    /** store file contents in direct buffers outside of the java heap */
+    private static final boolean DIRECT_STORAGE =
+            STORAGE_DIRECT.equalsIgnoreCase(JMeterUtils.getPropDefault(STORAGE_PROPERTY, STORAGE_HEAP));
+
+    /** JMeter property for the file size from which on files are memory mapped, negative to disable */
+    public static final String MMAP_THRESHOLD_PROPERTY = "filecontentserver.mmap.threshold"; // $NON-NLS-1$
+
+    /** files of at least this size are memory mapped instead of read, disabled if negative */
+    private static final long MMAP_THRESHOLD = JMeterUtils.getPropDefault(MMAP_THRESHOLD_PROPERTY, -1L);
+
+    public static final String MD5 = "MD5"; // $NON-NLS-1$
+    public static final String SHA1 = "SHA-1"; // $NON-NLS-1$
+    public static final String SHA256 = "SHA-256"; // $NON-NLS-1$
+    public static final String SHA512 = "SHA-512"; // $NON-NLS-1$
+    public static final String CRC32C = "CRC32C"; // $NON-NLS-1$
+
+    /** JMeter property listing the digest algorithms (comma separated) to compute while loading files */
+    public static final String DIGESTS_PROPERTY = "filecontentserver.digests"; // $NON-NLS-1$
+
+    /** digest algorithms computed while loading files */
+    private static final String[] LOAD_DIGESTS = getLoadDigests();
+
+    /** JMeter property for the maximum number of content bytes to be cached, unlimited if not positive */
+    public static final String MAX_BYTES_PROPERTY = "filecontentserver.max.bytes"; // $NON-NLS-1$
+
+    /** maximum number of content bytes held by the cache, unlimited if not positive */
+    private static final long MAX_BYTES = JMeterUtils.getPropDefault(MAX_BYTES_PROPERTY, 0L);
+
+    /** eviction frees bytes down to this level, so it does not run on every load once the cache is full */
+    private static final long EVICTION_TARGET = MAX_BYTES - MAX_BYTES / 10;
+
+    /** JMeter property to load files asynchronously */
+    public static final String ASYNC_PROPERTY = "filecontentserver.async"; // $NON-NLS-1$
+
+    /** read files with asynchronous channels, reserving a file does not wait for its content */
+    private static final boolean ASYNC = JMeterUtils.getPropDefault(ASYNC_PROPERTY, false);
+
+    /** JMeter property for the number of threads loading files in parallel at test start */
+    public static final String PREWARM_THREADS_PROPERTY = "filecontentserver.prewarm.threads"; // $NON-NLS-1$
+
+    /** number of threads loading files at test start, they are loaded by the calling thread if not positive */
+    private static final int PREWARM_THREADS =
+            JMeterUtils.getPropDefault(PREWARM_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+
+    /** JMeter property to share one content between files with identical content */
+    public static final String DEDUPLICATE_PROPERTY = "filecontentserver.dedup"; // $NON-NLS-1$
+
+    /** share one content between files with identical SHA-256 */
+    private static final boolean DEDUPLICATE = JMeterUtils.getPropDefault(DEDUPLICATE_PROPERTY, false);
+
+    /** JMeter property to reload cached files when they change on disk */
+    public static final String WATCH_PROPERTY = "filecontentserver.watch"; // $NON-NLS-1$
+
+    /** reload cached files when they change on disk */
+    private static final boolean WATCH = JMeterUtils.getPropDefault(WATCH_PROPERTY, false);
+
+    /** JMeter property for the maximum number of remembered path resolutions */
+    public static final String MAX_PATHS_PROPERTY = "filecontentserver.paths.max"; // $NON-NLS-1$
+
     /**
-     * Map to store file contents associated with their File object
+     * maximum number of remembered path resolutions, further paths are resolved on every request;
+     * paths built from variables may otherwise add one on every request
      */
-    private final Map<File, byte[]> files = new HashMap<>();
+    private static final int MAX_PATHS = JMeterUtils.getPropDefault(MAX_PATHS_PROPERTY, 100000);
+
+    /** separates the path of a pack from the name of an entry */
+    public static final String PACK_SEPARATOR = "!/"; // $NON-NLS-1$
+
+    /** name of the management bean */
+    public static final String MBEAN_NAME = "it.staiger.jmeter:type=FileContentServer"; // $NON-NLS-1$
+
+    /**
+     * Map to store file contents associated with their File object.
+     * The value is the (possibly still running) load of the file.
+     */
+    private final ConcurrentMap<File, CacheEntry> files = new ConcurrentHashMap<>();
+
+    /** number of content bytes held by all loaded entries, shared contents counted once */
+    private final AtomicLong residentBytes = new AtomicLong();
+
+    /** contents by SHA-256 if deduplication is enabled, guarded by itself */
+    private final Map<String, SharedContent> contents = new HashMap<>();
+
+    /** number of bytes not held because contents are shared */
+    private final AtomicLong deduplicatedBytes = new AtomicLong();
+
+    /** only one thread evicts at a time */
+    private final Object evictionLock = new Object();
+
+    /*
+     * Statistics, striped where updated on every request
+     */
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** number of times each file was requested for sending, kept when files are evicted until they are cleared */
+    private final ConcurrentMap<File, StripedCounter> sendCounts = new ConcurrentHashMap<>();
+
+    /** sorted listings of scanned directories, by directory and glob */
+    private final ConcurrentMap<String, List<String>> directories = new ConcurrentHashMap<>();
+
+    /** resolved paths by the path as requested, so repeated requests need no FileServer call, at most {@link #MAX_PATHS} */
+    private final ConcurrentMap<String, ResolvedPath> resolvedPaths = new ConcurrentHashMap<>();
+
+    /** whether reaching {@link #MAX_PATHS} has been logged since the files were cleared */
+    private volatile boolean pathsCapLogged;
+
+    /** mounted corpus packs by their file */
+    private final ConcurrentMap<File, CorpusPack> packs = new ConcurrentHashMap<>();
+
+    /** watches cached files for changes, null if disabled */
+    private final FileWatcher watcher = WATCH ? new FileWatcher(this) : null;
 
     private static final FileContentServer server = new FileContentServer();
 
     // Cannot be instantiated
     private FileContentServer() {
+        log.info("File contents are stored " + (DIRECT_STORAGE ? "outside of the heap" : "on the heap")
+                + (MMAP_THRESHOLD >= 0 && !ASYNC ? ", files from " + MMAP_THRESHOLD + " bytes on are memory mapped" : "")
+                + (ASYNC ? ", files are loaded asynchronously" : "")
+                + (MAX_BYTES > 0 ? ", cache is limited to " + MAX_BYTES + " bytes" : "")
+                + (WATCH ? ", changed files are reloaded" : ""));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            log.warn("Could not register management bean " + MBEAN_NAME, e);
+        }
+    }
+
+    /**
+     * Reads the digest algorithms to be computed while loading from the JMeter properties,
+     * unsupported algorithms are dropped.
+     *
+     * @return supported algorithms
+     */
+    private static String[] getLoadDigests() {
+        List<String> algorithms = new ArrayList<>();
+        for(String algorithm : JMeterUtils.getPropDefault(DIGESTS_PROPERTY, SHA256).split(",")){ // $NON-NLS-1$
+            algorithm = algorithm.trim();
+            if(algorithm.isEmpty()){
+                continue;
+            }
+            try {
+                new ContentDigest(algorithm);
+                algorithms.add(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                log.warn("Ignoring unsupported digest algorithm " + algorithm + " in " + DIGESTS_PROPERTY);
+            }
+        }
+        return algorithms.toArray(new String[algorithms.size()]);
     }
 
     /**
@@ -53,7 +277,369 @@ public class FileContentServer {
      * @param path path relative (to base) or absolute file path (must not be null)
      */
     public void reserveFile(String path) {
-        reserveFile(FileServer.getFileServer().getResolvedFile(path));
+        ResolvedPath resolved = resolve(path);
+        if(!resolved.isCached()){
+            getUncached(resolved);
+            return;
+        }
+        reserveEntry(resolved.file, resolved, false);
+    }
+
+    /**
+     * Starts loading a file unless it is stored already, without waiting for it
+     * if {@value #ASYNC_PROPERTY} is enabled. Otherwise the file is loaded before returning.
+     *
+     * @param path path relative (to base) or absolute file path, or packed entry
+     * @return future of the content, which is null if the file could not be read.
+     *          Loads cannot be cancelled through it.
+     */
+    public Future<FileContent> reserveFileAsync(String path) {
+        ResolvedPath resolved = resolve(path);
+        if(!resolved.isCached()){
+            return new ContentFuture(null, getUncached(resolved));
+        }
+        return new ContentFuture(reserveEntry(resolved.file, resolved, false), null);
+    }
+
+    /**
+     * Loads all given files in parallel, unless they are stored already,
+     * so samplers do not have to wait for the disk on their first requests.
+     * If {@value #PREWARM_THREADS_PROPERTY} is not positive, they are loaded one after the other by the calling thread.
+     * Returns when all files are loaded. Progress and the loaded bytes are logged.
+     * Paths containing unresolved variables are skipped, packs of packed entries are mounted.
+     * Test elements pass only paths not depending on the thread, as the calling thread evaluates them
+     * with its own variables, see {@link it.staiger.jmeter.util.ThreadValues}.
+     *
+     * @param paths paths relative (to base) or absolute file paths
+     */
+    public void reserveFiles(Collection<String> paths) {
+        if(paths.isEmpty()){
+            return;
+        }
+        final Set<File> toLoad = new LinkedHashSet<>();
+        for(String path : paths){
+            if(path == null || path.isEmpty() || path.contains("${")){ // $NON-NLS-1$
+                continue;
+            }
+            ResolvedPath resolved;
+            try{
+                resolved = resolve(path);
+            }catch(IllegalArgumentException e){
+                log.error(e.getMessage());
+                continue;
+            }
+            if(resolved.synthetic != null){
+                getUncached(resolved);
+            }else if(resolved.entryName != null){
+                mountPack(resolved.file);
+            }else if(!files.containsKey(resolved.file)){
+                toLoad.add(resolved.file);
+            }
+        }
+        if(toLoad.isEmpty()){
+            return;
+        }
+
+        log.info("Pre-warming " + toLoad.size() + " files with " + Math.max(1, PREWARM_THREADS) + " threads");
+        final long start = System.currentTimeMillis();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final int step = Math.max(1, toLoad.size() / 10);
+
+        List<Callable<Void>> loads = new ArrayList<>(toLoad.size());
+        for(final File file : toLoad){
+            // asynchronous reads are all issued first and waited for by their entries, without looking them up again
+            final CacheEntry reserved = ASYNC ? reserveEntry(file, null, false) : null;
+            loads.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    FileContent content = reserved != null ? getLoaded(reserved) : reserveFile(file, null, false);
+                    if(content == null){
+                        failed.incrementAndGet();
+                    }else{
+                        bytes.addAndGet(content.length());
+                    }
+                    int count = done.incrementAndGet();
+                    if(count % step == 0 && count < toLoad.size()){
+                        log.info("Pre-warmed " + count + " of " + toLoad.size() + " files");
+                    }
+                    return null;
+                }
+            });
+        }
+        if(ASYNC || PREWARM_THREADS <= 0){
+            // all reads are issued or loading is sequential, just call them
+            for(Callable<Void> load : loads){
+                try {
+                    load.call();
+                } catch (Exception e) {
+                    log.warn("Pre-warming failed", e);
+                }
+            }
+        }else{
+            ForkJoinPool pool = new ForkJoinPool(PREWARM_THREADS);
+            try {
+                pool.invokeAll(loads);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        log.info("Pre-warmed " + (toLoad.size() - failed.get()) + " files (" + failed.get() + " failed), "
+                + bytes.get() + " bytes in " + (System.currentTimeMillis() - start) + " ms"
+                + (DEDUPLICATE ? ", deduplication saves " + deduplicatedBytes.get() + " bytes" : ""));
+    }
+
+    /**
+     * Lists all files of a directory tree matching the glob and loads them in parallel,
+     * see {@link #reserveFiles(Collection)}.
+     *
+     * @param path path relative (to base) or absolute path of the directory
+     * @param glob glob pattern of the files, see {@link #listDirectory(String, String)}
+     * @return the paths of the matching files, see {@link #listDirectory(String, String)}
+     */
+    public List<String> reserveDirectory(String path, String glob) {
+        List<String> listed = listDirectory(path, glob);
+        reserveFiles(listed);
+        return listed;
+    }
+
+    /**
+     * Lists all files of a directory tree matching the glob. Subdirectories are listed in parallel.
+     * Patterns without a slash are matched against the file names in all subdirectories,
+     * patterns with a slash against the path relative to the directory, e.g. {@code images/*.png}.
+     * <p>
+     * The listing is sorted by the relative paths and kept until {@link #clearFiles()},
+     * so the index of a file is stable for all callers during a test.
+     * <p>
+     * If the path denotes a {@link CorpusPack}, its entries are listed instead.
+     *
+     * @param path path relative (to base) or absolute path of the directory or pack, the base directory if empty
+     * @param glob glob pattern of the files, all files if empty
+     * @return the unmodifiable sorted list of the matching files paths, the directory path joined with
+     *          the relative path of the file
+     */
+    public List<String> listDirectory(String path, String glob) {
+        String pattern = glob == null || glob.trim().isEmpty() ? "*" : glob.trim(); // $NON-NLS-1$
+        String directoryPath = path == null ? "" : path.trim(); // $NON-NLS-1$
+        // FileServer rejects empty names, an empty path denotes the base directory
+        File directory = directoryPath.isEmpty() ? new File(FileServer.getFileServer().getBaseDir())
+                : FileServer.getFileServer().getResolvedFile(directoryPath);
+        String key = directory.getPath() + '\n' + pattern;
+        List<String> listed = directories.get(key);
+        if(listed != null){
+            return listed;
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> relatives;
+        boolean packed = directory.isFile();
+        if(packed){
+            relatives = listPack(directoryPath, pattern);
+        }else if(!directory.isDirectory()){
+            log.warn("Cannot list " + directory.getPath() + ", not a directory");
+            relatives = Collections.emptyList();
+        }else{
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, PREWARM_THREADS));
+            try {
+                relatives = pool.invoke(new DirectoryScan(directory.toPath(), pattern));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        Collections.sort(relatives);
+        List<String> paths = new ArrayList<>(relatives.size());
+        for(String relative : relatives){
+            if(packed){
+                paths.add(directoryPath + PACK_SEPARATOR + relative);
+            }else{
+                paths.add(directoryPath.isEmpty() ? new File(relative).getPath() : new File(directoryPath, relative).getPath());
+            }
+        }
+        listed = Collections.unmodifiableList(paths);
+        List<String> previous = directories.putIfAbsent(key, listed);
+        if(previous != null){
+            return previous;
+        }
+        log.info("Listed " + listed.size() + " files matching " + pattern + " in " + directory.getPath()
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+        return listed;
+    }
+
+    /**
+     * @param path path of the pack
+     * @param glob glob pattern of the entries
+     * @return names of the matching entries of the pack, empty if it cannot be mounted
+     */
+    private List<String> listPack(String path, String glob) {
+        List<String> names = new ArrayList<>();
+        CorpusPack pack = mountPack(path);
+        if(pack != null){
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob); // $NON-NLS-1$
+            boolean matchName = glob.indexOf('/') < 0;
+            for(int i = 0; i < pack.size(); i++){
+                String name = pack.getName(i);
+                String matched = matchName ? name.substring(name.lastIndexOf('/') + 1) : name;
+                if(matcher.matches(Paths.get(matched))){
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Maps a {@link CorpusPack} into memory, unless it is mounted already.
+     *
+     * @param path path relative (to base) or absolute path of the pack
+     * @return the pack or null if it could not be opened
+     */
+    public CorpusPack mountPack(String path) {
+        return mountPack(FileServer.getFileServer().getResolvedFile(path));
+    }
+
+    /**
+     * @param file resolved pack file
+     * @return the pack or null if it could not be opened
+     */
+    private CorpusPack mountPack(File file) {
+        CorpusPack pack = packs.get(file);
+        if(pack == null){
+            synchronized(packs){
+                pack = packs.get(file);
+                if(pack == null){
+                    try {
+                        long start = System.currentTimeMillis();
+                        pack = CorpusPack.open(file);
+                        packs.put(file, pack);
+                        log.info("Mounted pack " + file.getPath() + " with " + pack.size() + " entries in "
+                                + (System.currentTimeMillis() - start) + " ms");
+                    } catch (IOException e) {
+                        log.error("Could not mount pack " + file.getPath(), e);
+                    }
+                }
+            }
+        }
+        return pack;
+    }
+
+    /**
+     * @param path resolved path of a packed entry or synthetic content
+     * @return the content of the entry or null if the pack or the entry does not exist
+     */
+    private FileContent getUncached(ResolvedPath path) {
+        FileContent content = path.content;
+        if(content == null && path.synthetic != null){
+            synchronized(path){
+                content = path.content;
+                if(content == null){
+                    long start = System.nanoTime();
+                    content = path.synthetic.generate(DIRECT_STORAGE);
+                    log.info("Generated " + path.name + " in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                    path.content = content;
+                }
+            }
+        }else if(content == null){
+            CorpusPack pack = mountPack(path.file);
+            if(pack == null){
+                return null;
+            }
+            int index = pack.indexOf(path.entryName);
+            if(index < 0){
+                log.error("No entry " + path.entryName + " in " + path.file.getPath());
+                return null;
+            }
+            content = pack.getContent(index);
+            path.content = content;
+        }
+        hits.increment();
+        return content;
+    }
+
+    /**
+     * Get the MIME type stored with a packed entry or matching a synthetic content.
+     *
+     * @param path pack path and entry name, separated by {@value #PACK_SEPARATOR}, or synthetic content
+     * @return the MIME type or null if the path is neither a packed entry nor a synthetic content
+     */
+    public String getMimeType(String path) {
+        ResolvedPath resolved = resolve(path);
+        if(resolved.synthetic != null){
+            return resolved.synthetic.getMimeType();
+        }
+        if(resolved.entryName == null){
+            return null;
+        }
+        CorpusPack pack = mountPack(resolved.file);
+        int index = pack == null ? -1 : pack.indexOf(resolved.entryName);
+        return index < 0 ? null : pack.getMimeType(index);
+    }
+
+    /**
+     * Get the name of a file as sent in uploads, the last element of its path.
+     * Uses the cached resolution of the path, so no objects are created on repeated calls.
+     *
+     * @param path path relative (to base) or absolute file path, or packed entry
+     * @return the name of the file
+     */
+    public String getName(String path) {
+        return resolve(path).name;
+    }
+
+    /**
+     * Get the size of a file without loading it. Packed entries and synthetic contents are
+     * mounted or generated though, as their size is only known from their content.
+     *
+     * @param path path relative (to base) or absolute file path, packed entry or synthetic content
+     * @return number of bytes, 0 if the file does not exist
+     */
+    public long getLength(String path) {
+        ResolvedPath resolved = resolve(path);
+        if(resolved.isCached()){
+            return resolved.file.length();
+        }
+        FileContent content = getUncached(resolved);
+        return content == null ? 0 : content.length();
+    }
+
+    /**
+     * Get the file a path resolves to, using the cached resolution of the path.
+     *
+     * @param path path relative (to base) or absolute file path, or packed entry
+     * @return the file or null for packed entries and synthetic contents
+     */
+    public File getResolvedFile(String path) {
+        ResolvedPath resolved = resolve(path);
+        return resolved.isCached() ? resolved.file : null;
+    }
+
+    /**
+     * Resolves a path using the FileServer, unless it has been resolved before.
+     * Once {@value #MAX_PATHS_PROPERTY} paths are remembered, further ones are resolved on every request,
+     * their synthetic contents are generated and their templates parsed again each time.
+     *
+     * @param path path relative (to base) or absolute file path, or packed entry
+     * @return the resolved path
+     */
+    private ResolvedPath resolve(String path) {
+        ResolvedPath resolved = resolvedPaths.get(path);
+        if(resolved == null){
+            resolved = new ResolvedPath(path);
+            if(resolvedPaths.size() >= MAX_PATHS){
+                if(!pathsCapLogged){
+                    pathsCapLogged = true;
+                    log.warn(MAX_PATHS + " paths are remembered already, further ones are resolved on every request;"
+                            + " the paths probably change with every request");
+                }
+                return resolved;
+            }
+            ResolvedPath previous = resolvedPaths.putIfAbsent(path, resolved);
+            if(previous != null){
+                resolved = previous;
+            }
+        }
+        return resolved;
     }
 
     /**
@@ -61,52 +647,712 @@ public class FileContentServer {
      * and stores it for later use - unless it is already stored.
      * Access via File only with File from FileServer to prevent duplicates
      * of duplicate File objects with same Path.
+     * If another thread is loading the file already, waits for that load.
      *
      * @param file File which is to be saved - coming from FileServer
+     * @param path resolved path remembering the entry of the file, may be null
+     * @param send whether the content is requested to be sent, counted per file
+     * @return the content of the file or null if it could not be read
+     */
+    private FileContent reserveFile(File file, ResolvedPath path, boolean send) {
+        return getLoaded(reserveEntry(file, path, send));
+    }
+
+    /**
+     * Gets the cache entry of a file, creating it and starting its load if there is none.
+     * The load runs in the calling thread, unless {@value #ASYNC_PROPERTY} is enabled.
+     *
+     * @param file File which is to be saved - coming from FileServer
+     * @param path resolved path remembering the entry of the file, may be null
+     * @param send whether the content is requested to be sent, counted per file
+     * @return the entry of the file, maybe still loading
+     */
+    private CacheEntry reserveEntry(File file, ResolvedPath path, boolean send) {
+        CacheEntry entry = path == null ? null : path.entry;
+        if(entry == null || entry.state.get() == CacheEntry.RELEASED){
+            entry = files.get(file);
+        }
+        boolean loaded = false;
+        if(entry == null){
+            CacheEntry created = new CacheEntry(file, getSendCount(file));
+            entry = files.putIfAbsent(file, created);
+            if(entry == null){
+                entry = created;
+                loaded = true;
+                if(ASYNC){
+                    loadAsync(created);
+                }else{
+                    loadAndAdmit(created);
+                }
+                log.debug("added " + file.getPath());
+            }
+        }
+        if(loaded){
+            misses.increment();
+        }else{
+            hits.increment();
+            if(MAX_BYTES > 0){
+                entry.lastAccess = System.nanoTime();
+            }
+        }
+        if(send){
+            entry.sends.increment();
+        }
+        if(path != null){
+            path.entry = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Loads a new entry in the calling thread and accounts it in the cache.
+     * Failures are logged and the entry is removed again.
+     *
+     * @param entry entry to be loaded
+     */
+    private void loadAndAdmit(CacheEntry entry) {
+        load(entry);
+        FileContent loaded = getLoaded(entry);
+        if(loaded != null){
+            admit(entry, loaded);
+        }
+    }
+
+    /**
+     * Starts reading a new entry asynchronously. Once read, it is accounted in the cache
+     * before threads waiting for it are released. Failures are logged by the first thread requesting it.
+     *
+     * @param entry entry to be loaded
+     */
+    private void loadAsync(final CacheEntry entry) {
+        final long start = System.nanoTime();
+        AsyncFileLoader.load(entry.file, DIRECT_STORAGE, LOAD_DIGESTS, new CompletionHandler<FileContent, Void>() {
+            @Override
+            public void completed(FileContent loaded, Void attachment) {
+                loadNanos.addAndGet(System.nanoTime() - start);
+                loadCount.incrementAndGet();
+                try {
+                    entry.complete(admit(entry, loaded));
+                } catch (RuntimeException e) {
+                    entry.fail(e); // never leave waiting threads hanging
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                entry.fail(e);
+            }
+        });
+    }
+
+    /**
+     * Runs the load of an entry and records the time taken.
+     *
+     * @param entry entry to be loaded
+     */
+    private void load(CacheEntry entry) {
+        long start = System.nanoTime();
+        entry.run();
+        loadNanos.addAndGet(System.nanoTime() - start);
+        loadCount.incrementAndGet();
+    }
+
+    /**
+     * @param file cache key of a file
+     * @return the counter of send requests of the file
+     */
+    private StripedCounter getSendCount(File file) {
+        StripedCounter count = sendCounts.get(file);
+        if(count == null){
+            StripedCounter created = new StripedCounter(4, false);
+            count = sendCounts.putIfAbsent(file, created);
+            if(count == null){
+                count = created;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits for the given load of a file to be finished.
+     * Failed loads are removed, so the next request will try again.
+     *
+     * @param entry the running or finished load of the file
+     * @return the content of the file or null if it could not be read
+     */
+    private FileContent getLoaded(CacheEntry entry) {
+        FileContent content = entry.content;
+        if(content != null){
+            return content;
+        }
+        try {
+            return entry.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for " + entry.file.getPath());
+        } catch (ExecutionException e) {
+            if(remove(entry)){ // log only once
+                log.error("Could not read file " + entry.file.getPath(), e.getCause());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Accounts the size of a newly loaded entry and evicts other entries if the cache got too large.
+     *
+     * @param entry the loaded entry
+     * @param loaded its content as loaded
+     * @return the content to be used for the entry, shared with other entries if deduplicated
+     */
+    private FileContent admit(CacheEntry entry, FileContent loaded) {
+        FileContent content = acquire(loaded);
+        entry.content = content;
+        if(entry.state.compareAndSet(CacheEntry.LOADING, CacheEntry.COUNTED)){
+            if(watcher != null){
+                watcher.watch(entry.file);
+            }
+            if(MAX_BYTES > 0 && residentBytes.get() > MAX_BYTES){
+                evict();
+            }
+        }else{
+            release(content); // removed while loading
+        }
+        return content;
+    }
+
+    /**
+     * Loads a cached file again and replaces its entry, called by the {@link FileWatcher}.
+     * The file is read like new entries, asynchronously if {@value #ASYNC_PROPERTY} is enabled.
+     * Threads keep getting the old content until the new one is loaded completely.
+     * If the file cannot be read, the old content is kept.
+     *
+     * @param file cache key of the changed file
+     */
+    void reload(final File file) {
+        final CacheEntry old = files.get(file);
+        if(old == null || old.state.get() != CacheEntry.COUNTED){
+            return; // not cached (anymore) or still loading
+        }
+        final CacheEntry fresh = new CacheEntry(file, old.sends);
+        if(ASYNC){
+            final long start = System.nanoTime();
+            AsyncFileLoader.load(file, DIRECT_STORAGE, LOAD_DIGESTS, new CompletionHandler<FileContent, Void>() {
+                @Override
+                public void completed(FileContent loaded, Void attachment) {
+                    loadNanos.addAndGet(System.nanoTime() - start);
+                    loadCount.incrementAndGet();
+                    replace(old, fresh, loaded);
+                    fresh.complete(fresh.content);
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    log.warn("Could not reload changed file " + file.getPath() + ", keeping old content", e);
+                }
+            });
+            return;
+        }
+        load(fresh);
+        FileContent loaded;
+        try {
+            loaded = fresh.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            log.warn("Could not reload changed file " + file.getPath() + ", keeping old content", e.getCause());
+            return;
+        }
+        replace(old, fresh, loaded);
+    }
+
+    /**
+     * Replaces the entry of a file by its reloaded entry, unless it has been removed or replaced meanwhile.
+     *
+     * @param old entry holding the old content
+     * @param fresh entry of the reloaded content
+     * @param loaded the reloaded content
      */
-    private void reserveFile(File file) {
-    	if(files.get(file)==null){
-    		files.put(file, getFile(file));
-    		log.debug("added " + file.getPath());
-    	}else{
-    		log.debug(file.getPath() + " already reserved");
-    		
-    	}
+    private void replace(CacheEntry old, CacheEntry fresh, FileContent loaded) {
+        File file = fresh.file;
+        fresh.content = acquire(loaded);
+        fresh.lastAccess = old.lastAccess;
+        fresh.state.set(CacheEntry.COUNTED);
+        if(files.replace(file, old, fresh)){
+            if(old.state.getAndSet(CacheEntry.RELEASED) == CacheEntry.COUNTED){
+                release(old.content);
+            }
+            log.info("reloaded changed file " + file.getPath());
+            if(MAX_BYTES > 0 && residentBytes.get() > MAX_BYTES){
+                evict();
+            }
+        }else{
+            fresh.state.set(CacheEntry.RELEASED);
+            release(fresh.content);
+        }
     }
-    
 
     /**
-     * Retrieves the content f a file as a byte array
+     * Removes an entry from the cache, unless it has been replaced already,
+     * and releases the bytes accounted for it.
      *
-     * @param file File of which the content is to be returned
+     * @param entry entry to remove
+     * @return true if the entry was removed by this call
+     */
+    private boolean remove(CacheEntry entry) {
+        if(!files.remove(entry.file, entry)){
+            return false;
+        }
+        if(entry.state.getAndSet(CacheEntry.RELEASED) == CacheEntry.COUNTED){
+            release(entry.content);
+        }
+        return true;
+    }
+
+    /**
+     * Accounts a loaded content in the cache size.
+     * If deduplication is enabled and an identical content is held already, that one is used instead.
+     *
+     * @param content loaded content
+     * @return the content to be held
+     */
+    private FileContent acquire(FileContent content) {
+        if(!DEDUPLICATE){
+            residentBytes.addAndGet(content.length());
+            return content;
+        }
+        String digest = content.getDigest(SHA256);
+        synchronized (contents) {
+            SharedContent shared = contents.get(digest);
+            if(shared == null){
+                contents.put(digest, new SharedContent(content));
+                residentBytes.addAndGet(content.length());
+                return content;
+            }
+            shared.references++;
+            deduplicatedBytes.addAndGet(shared.content.length());
+            return shared.content;
+        }
+    }
+
+    /**
+     * Releases a content from the cache size, shared contents once they are not used by any entry.
+     *
+     * @param content content acquired by {@link #acquire(FileContent)}
+     */
+    private void release(FileContent content) {
+        if(!DEDUPLICATE){
+            residentBytes.addAndGet(-content.length());
+            return;
+        }
+        String digest = content.getDigest(SHA256);
+        synchronized (contents) {
+            SharedContent shared = contents.get(digest);
+            if(shared == null || shared.content != content){
+                return;
+            }
+            if(--shared.references == 0){
+                contents.remove(digest);
+                residentBytes.addAndGet(-content.length());
+            }else{
+                deduplicatedBytes.addAndGet(-content.length());
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used contents until the cache is below its eviction target.
+     * A content shared by deduplicated entries is as recent as its most recently used entry,
+     * all of them are evicted together, as removing only some would not free its bytes.
+     * Threads still using the content of an evicted entry are not affected,
+     * the file will be loaded again on its next request.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            if(residentBytes.get() <= MAX_BYTES){
+                return; // another thread evicted already
+            }
+            // snapshot access times, they keep changing while sorting
+            Map<FileContent, EvictionCandidate> byContent = new IdentityHashMap<>(files.size());
+            for(CacheEntry entry : files.values()){
+                if(entry.state.get() != CacheEntry.COUNTED){
+                    continue;
+                }
+                EvictionCandidate candidate = byContent.get(entry.content);
+                if(candidate == null){
+                    byContent.put(entry.content, new EvictionCandidate(entry));
+                }else{
+                    candidate.add(entry);
+                }
+            }
+            List<EvictionCandidate> candidates = new ArrayList<>(byContent.values());
+            Collections.sort(candidates);
+            int evicted = 0;
+            for(EvictionCandidate candidate : candidates){
+                if(residentBytes.get() <= EVICTION_TARGET){
+                    break;
+                }
+                for(CacheEntry entry : candidate.entries){
+                    if(remove(entry)){
+                        evicted++;
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+            if(log.isDebugEnabled()){
+                log.debug("evicted " + evicted + " files, " + residentBytes.get() + " bytes remain cached");
+            }
+        }
+    }
+
+    /**
+     * Resolution of a requested path.
+     */
+    private static final class ResolvedPath {
+
+        /** resolved file, the pack file for packed entries, null for synthetic contents */
+        final File file;
+
+        /** name of the entry for packed entries, else null */
+        final String entryName;
+
+        /** specification of synthetic contents, else null */
+        final SyntheticPayload synthetic;
+
+        /** last element of the path, as sent in uploads */
+        final String name;
+
+        /** cache entry of the file as last seen, checked for being released before use */
+        volatile CacheEntry entry;
+
+        /** content of a packed entry once found or of a synthetic content once generated */
+        volatile FileContent content;
+
+        /** template parsed from the content as last seen, parsed again if the content changed */
+        volatile ContentTemplate template;
+
+        /**
+         * @param path path relative (to base) or absolute file path, packed entry or synthetic content
+         * @throws IllegalArgumentException if the specification of a synthetic content is invalid
+         */
+        ResolvedPath(String path) {
+            int separator = path.indexOf(PACK_SEPARATOR);
+            if(SyntheticPayload.isSynthetic(path)){
+                file = null;
+                entryName = null;
+                synthetic = SyntheticPayload.parse(path);
+                name = synthetic.getName();
+            }else if(separator < 0){
+                file = FileServer.getFileServer().getResolvedFile(path);
+                entryName = null;
+                synthetic = null;
+                name = file.getName();
+            }else{
+                file = FileServer.getFileServer().getResolvedFile(path.substring(0, separator));
+                entryName = path.substring(separator + PACK_SEPARATOR.length());
+                synthetic = null;
+                name = entryName.substring(entryName.lastIndexOf('/') + 1);
+            }
+        }
+
+        /**
+         * @return true if the content is held by a cache entry, false for packed entries and synthetic contents
+         */
+        boolean isCached() {
+            return entryName == null && synthetic == null;
+        }
+    }
+
+    /**
+     * Cached file: the load of its content and the data needed for eviction.
+     */
+    private static final class CacheEntry extends FutureTask<FileContent> {
+
+        static final int LOADING = 0;
+        static final int COUNTED = 1;
+        static final int RELEASED = 2;
+
+        final File file;
+
+        /** whether the bytes of the entry are accounted in the cache size */
+        final AtomicInteger state = new AtomicInteger(LOADING);
+
+        /** content to be used, set once loaded and accounted */
+        volatile FileContent content;
+
+        /** time of the last request, only maintained if the cache size is limited */
+        volatile long lastAccess = System.nanoTime();
+
+        /** number of times the file was requested for sending */
+        final StripedCounter sends;
+
+        CacheEntry(File file, StripedCounter sends) {
+            super(new FileLoader(file));
+            this.file = file;
+            this.sends = sends;
+        }
+
+        /**
+         * Completes an asynchronous load, instead of running the entry.
+         *
+         * @param loaded the content
+         */
+        void complete(FileContent loaded) {
+            set(loaded);
+        }
+
+        /**
+         * Fails an asynchronous load, instead of running the entry.
+         *
+         * @param e cause of the failure
+         */
+        void fail(Throwable e) {
+            setException(e);
+        }
+
+        /**
+         * Loads cannot be cancelled, as other threads may be waiting for them.
+         *
+         * @return false
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+    }
+
+    /**
+     * Future of a content, waiting for the load of its cache entry.
      */
-	private byte[] getFile(File file){
-		try {
-			return IOUtils.toByteArray(new FileInputStream(file));
-		} catch (IOException e1) {
-			log.error("Could not read file " + file.getPath());
-			e1.printStackTrace();
-			return null;
-		}
-	}
+    private final class ContentFuture implements Future<FileContent> {
+
+        /** entry being loaded, null if the content is known already */
+        private final CacheEntry entry;
+
+        private final FileContent content;
+
+        ContentFuture(CacheEntry entry, FileContent content) {
+            this.entry = entry;
+            this.content = content;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return entry == null || entry.isDone();
+        }
+
+        /**
+         * @return the content or null if it could not be read
+         */
+        @Override
+        public FileContent get() {
+            return entry == null ? content : getLoaded(entry);
+        }
+
+        /**
+         * @return the content or null if it could not be read
+         */
+        @Override
+        public FileContent get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if(entry != null && !entry.isDone()){
+                try {
+                    entry.get(timeout, unit);
+                } catch (ExecutionException e) {
+                    // logged by getLoaded
+                }
+            }
+            return get();
+        }
+    }
+
+    /**
+     * Content held by one or more entries, only used for deduplication.
+     */
+    private static final class SharedContent {
+
+        final FileContent content;
+
+        /** number of entries using the content, guarded by the contents map */
+        int references = 1;
+
+        SharedContent(FileContent content) {
+            this.content = content;
+        }
+    }
+
+    /**
+     * Entries sharing one content with the latest of their access times fixed,
+     * ordered from least to most recently used.
+     */
+    private static final class EvictionCandidate implements Comparable<EvictionCandidate> {
+
+        final List<CacheEntry> entries = new ArrayList<>(1);
+        long lastAccess;
+
+        EvictionCandidate(CacheEntry entry) {
+            entries.add(entry);
+            this.lastAccess = entry.lastAccess;
+        }
+
+        /**
+         * @param entry another entry with the same content
+         */
+        void add(CacheEntry entry) {
+            entries.add(entry);
+            long access = entry.lastAccess;
+            // nanoTime values may overflow, so compare their difference
+            if(access - lastAccess > 0){
+                lastAccess = access;
+            }
+        }
+
+        @Override
+        public int compareTo(EvictionCandidate other) {
+            // nanoTime values may overflow, so compare their difference
+            long diff = lastAccess - other.lastAccess;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * Reads the content of a file, to be run once per file.
+     */
+    private static final class FileLoader implements Callable<FileContent> {
+
+        private final File file;
+
+        FileLoader(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Retrieves the content of a file into heap or direct buffers,
+         * or maps it into memory if it is large enough.
+         * Files larger than {@value FileContent#MAX_SEGMENT_SIZE} bytes are split into several segments.
+         * Computes the configured digests in the same pass.
+         */
+        @Override
+        public FileContent call() throws IOException, NoSuchAlgorithmException {
+            ContentDigest[] digests = new ContentDigest[LOAD_DIGESTS.length];
+            for(int i = 0; i < digests.length; i++){
+                digests[i] = new ContentDigest(LOAD_DIGESTS[i]);
+            }
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                boolean map = MMAP_THRESHOLD >= 0 && size >= MMAP_THRESHOLD && size > 0;
+                ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1,
+                        (size + FileContent.MAX_SEGMENT_SIZE - 1) / FileContent.MAX_SEGMENT_SIZE)];
+                for(int i = 0; i < segments.length; i++){
+                    long offset = (long) i * FileContent.MAX_SEGMENT_SIZE;
+                    int length = (int) Math.min(FileContent.MAX_SEGMENT_SIZE, size - offset);
+                    ByteBuffer segment;
+                    if(map){
+                        // mapping stays valid after the channel is closed
+                        segment = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                        segment.position(length);
+                        update(digests, segment, 0);
+                        segment.rewind();
+                    }else{
+                        segment = DIRECT_STORAGE
+                                ? ByteBuffer.allocateDirect(length)
+                                : ByteBuffer.allocate(length);
+                        int digested = 0;
+                        while(segment.hasRemaining() && channel.read(segment) >= 0){
+                            digested = update(digests, segment, digested);
+                        }
+                        segment.flip();
+                    }
+                    segments[i] = segment;
+                }
+                Map<String, String> hexDigests = new HashMap<>();
+                for(ContentDigest digest : digests){
+                    hexDigests.put(digest.getAlgorithm(), digest.toHex());
+                }
+                return new FileContent(segments, hexDigests);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        /**
+         * Feeds the bytes read since the last update to the digests.
+         *
+         * @param digests digests to update
+         * @param content buffer being filled, bytes up to its position are read
+         * @param from position up to which the digests have been updated
+         * @return the new position up to which the digests have been updated
+         */
+        private static int update(ContentDigest[] digests, ByteBuffer content, int from) {
+            int to = content.position();
+            for(ContentDigest digest : digests){
+                ByteBuffer read = content.duplicate();
+                read.limit(to);
+                read.position(from);
+                digest.update(read);
+            }
+            return to;
+        }
+    }
 
     /**
      * Get Byte Array of content for provided file path,
-     * resolve file location relative to base dir or script dir using FileServer
+     * resolve file location relative to base dir or script dir using FileServer.
+     * Contents stored outside of the heap are copied, use {@link #getContent(String)} to avoid it.
      * @param path original path to file, maybe relative
      * @return Byte Array of content
+     * @throws IllegalStateException if the content is larger than 2 GB, use {@link #getContent(String)} instead
      */
     public byte[] getFileContent(String path) {
-        return getFileContent(FileServer.getFileServer().getResolvedFile(path));
+        FileContent content = getContent(path);
+        return content == null ? null : content.getBytes();
     }
+
     /**
-     * Get byte[] for provided File instance,
+     * Get content for provided file path,
+     * resolve file location relative to base dir or script dir using FileServer
      * @param path original path to file, maybe relative
-     * @return Byte Array of content
+     * @return content of the file or null if it could not be read
      */
-    private byte[] getFileContent(File file) {
-        reserveFile(file);
-        return files.get(file);
+    public FileContent getContent(String path) {
+        ResolvedPath resolved = resolve(path);
+        if(!resolved.isCached()){
+            return getUncached(resolved);
+        }
+        return reserveFile(resolved.file, resolved, true);
+    }
+
+    /**
+     * Get the content of a file as {@link ContentTemplate}, parsed only once as long as the content is cached.
+     * If the content is reloaded or evicted, the template is parsed again on its next request.
+     *
+     * @param path original path to file, maybe relative, or packed entry
+     * @return the template or null if the file could not be loaded
+     */
+    public ContentTemplate getTemplate(String path) {
+        FileContent content = getContent(path);
+        if(content == null){
+            return null;
+        }
+        ResolvedPath resolved = resolve(path);
+        ContentTemplate template = resolved.template;
+        if(template == null || template.getSource() != content){
+            template = ContentTemplate.parse(content);
+            resolved.template = template;
+        }
+        return template;
     }
 
     /**
@@ -115,36 +1361,107 @@ public class FileContentServer {
      * @return String SHA256 hash
      */
     public String getSHA256(String path) {
-        return getSHA256(FileServer.getFileServer().getResolvedFile(path));
+        return getDigest(path, SHA256);
     }
 
     /**
-     * Get String of SHA256 hash for provided file path,
-     * after makeing sure it has been reserved already
-     * @param file File from FileServer
-     * @return String SHA256 hash
+     * Get the hex encoded digest for provided file path.
+     * Digests are computed only once per file and kept with its content.
+     * @param path original path to file, maybe relative
+     * @param algorithm {@link #MD5}, {@link #SHA1}, {@link #SHA256}, {@link #SHA512}, {@link #CRC32C}
+     *  or any other {@link java.security.MessageDigest} algorithm
+     * @return hex encoded digest, null if the file could not be read or the algorithm is not supported
+     */
+    public String getDigest(String path, String algorithm) {
+        ResolvedPath resolved = resolve(path);
+        FileContent content = !resolved.isCached() ? getUncached(resolved)
+                : reserveFile(resolved.file, resolved, false);
+        return content == null ? null : content.getDigest(algorithm);
+    }
+
+    /*
+     * Statistics
      */
-    private String getSHA256(File file) {
-        reserveFile(file);
-        return getSHA256(files.get(file));
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    @Override
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(loadNanos.get());
+    }
+
+    @Override
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    @Override
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes.get();
+    }
+
+    @Override
+    public int getEntryCount() {
+        return files.size();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public Map<String, Long> getSendCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for(Map.Entry<File, StripedCounter> count : sendCounts.entrySet()){
+            counts.put(count.getKey().getPath(), Long.valueOf(count.getValue().sum()));
+        }
+        return counts;
+    }
+
+    @Override
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        loadCount.set(0);
+        loadNanos.set(0);
+        evictions.set(0);
+        for(StripedCounter count : sendCounts.values()){
+            count.reset();
+        }
     }
 
     /**
-     * Get String of SHA256 hash for provided byte array,
-     * @param content byte array
-     * @return String SHA256 hash
+     * Removes all files, resolved paths, directory listings, packs and send counts per file from the cache
+     * and stops watching files. They will be loaded again on their next request.
+     * Called by the plugins test elements at the end of every test, so no file is kept between runs.
+     * The other statistics are kept until {@link #resetStatistics()}.
      */
-	private String getSHA256(byte[] content){
-		try {
-			MessageDigest md = MessageDigest.getInstance("SHA-256");
-			return new String(Hex.encodeHex(md.digest(content)));
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-			return null;
-		}
-	}
-	
-    public synchronized void clearFiles() {
-        files.clear();
+    @Override
+    public void clearFiles() {
+        if(watcher != null){
+            watcher.close();
+        }
+        resolvedPaths.clear();
+        pathsCapLogged = false;
+        directories.clear();
+        packs.clear();
+        for(CacheEntry entry : files.values()){
+            remove(entry);
+        }
+        sendCounts.clear();
     }
 }
\ No newline at end of file
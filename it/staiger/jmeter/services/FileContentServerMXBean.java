@@ -0,0 +1,71 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link FileContentServer}, registered as
+ * {@value FileContentServer#MBEAN_NAME} at the platform MBean server.
+ */
+public interface FileContentServerMXBean {
+
+    /**
+     * @return number of requests served from the cache
+     */
+    long getHits();
+
+    /**
+     * @return number of requests which had to load the file
+     */
+    long getMisses();
+
+    /**
+     * @return number of files loaded, including reloads
+     */
+    long getLoadCount();
+
+    /**
+     * @return time spent loading files in milliseconds
+     */
+    long getTotalLoadTime();
+
+    /**
+     * @return number of content bytes held by the cache, shared contents counted once
+     */
+    long getResidentBytes();
+
+    /**
+     * @return number of bytes saved by sharing identical contents between files
+     */
+    long getDeduplicatedBytes();
+
+    /**
+     * @return number of cached files
+     */
+    int getEntryCount();
+
+    /**
+     * @return number of files evicted because of the size limit
+     */
+    long getEvictions();
+
+    /**
+     * @return number of times the content of a file was requested for sending, by file path,
+     *          since the files were last cleared at the end of a test
+     */
+    Map<String, Long> getSendCounts();
+
+    /**
+     * Sets all counters to zero.
+     */
+    void resetStatistics();
+
+    /**
+     * Removes all files and their send counts from the cache.
+     */
+    void clearFiles();
+}
@@ -0,0 +1,168 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Watches the directories of cached files and lets the {@link FileContentServer}
+ * reload files which have been changed. Runs in its own daemon thread,
+ * which is started with the first watched file and ends when the watcher is closed.
+ */
+final class FileWatcher {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    /** time to wait for further events after a change, so files are not read while being written */
+    private static final long SETTLE_TIME = 500L;
+
+    private final FileContentServer server;
+
+    private WatchService watchService;
+
+    /** cache keys by their absolute path */
+    private final ConcurrentMap<Path, Set<File>> watched = new ConcurrentHashMap<>();
+
+    /** directories registered at the watch service */
+    private final Set<Path> directories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    FileWatcher(FileContentServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Watches the directory of a cached file for changes.
+     *
+     * @param file cache key of the file
+     */
+    void watch(File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Set<File> keys = watched.get(path);
+        if (keys == null) {
+            Set<File> created = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+            keys = watched.putIfAbsent(path, created);
+            if (keys == null) {
+                keys = created;
+            }
+        }
+        keys.add(file);
+
+        Path directory = path.getParent();
+        if (directory != null && directories.add(directory)) {
+            try {
+                directory.register(getWatchService(),
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                log.debug("watching " + directory);
+            } catch (IOException e) {
+                log.warn("Could not watch " + directory + " for changes", e);
+            }
+        }
+    }
+
+    /**
+     * Stops watching all files and ends the thread. Files watched afterwards start a new one.
+     */
+    synchronized void close() {
+        if (watchService != null) {
+            IOUtils.closeQuietly(watchService);
+            watchService = null;
+        }
+        watched.clear();
+        directories.clear();
+    }
+
+    /**
+     * @return the watch service, created and served by a new thread on first use
+     * @throws IOException if the watch service cannot be created
+     */
+    private synchronized WatchService getWatchService() throws IOException {
+        if (watchService == null) {
+            final WatchService service = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(service);
+                }
+            }, "FileContentServer watcher"); // $NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+            watchService = service;
+        }
+        return watchService;
+    }
+
+    /**
+     * Waits for changes and reloads the changed files, until interrupted or closed.
+     *
+     * @param service watch service to take the changes from
+     */
+    private void serve(WatchService service) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = service.take();
+                Thread.sleep(SETTLE_TIME);
+                while (key != null) {
+                    collectChanges(key, changed);
+                    key = service.poll();
+                }
+                for (Path path : changed) {
+                    Set<File> keys = watched.get(path);
+                    if (keys != null) {
+                        for (File file : keys) {
+                            try {
+                                server.reload(file);
+                            } catch (RuntimeException e) {
+                                log.error("Could not reload " + file.getPath(), e);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("stopped watching");
+        }
+    }
+
+    /**
+     * Adds the paths changed according to the key to the set and resets the key.
+     *
+     * @param key signalled key
+     * @param changed set of changed paths
+     */
+    private void collectChanges(WatchKey key, Set<Path> changed) {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.warn("Missed changes in " + directory);
+                continue;
+            }
+            changed.add(directory.resolve((Path) event.context()));
+        }
+        if (!key.reset()) {
+            directories.remove(directory);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.services;
+
+import it.staiger.jmeter.util.ByteSize;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Content generated in memory instead of read from a file, addressed by a specification like
+ * <code>synthetic:size=5MB,seed=42,pattern=random</code>.
+ * <p>
+ * The size is given in bytes or with one of the suffixes KB, MB and GB (powers of 1024) and is required.
+ * The pattern is one of
+ * <ul>
+ * <li><code>random</code> (default) - pseudo random bytes, which do not compress</li>
+ * <li><code>text</code> - pseudo random letters, digits, blanks and line breaks</li>
+ * <li><code>zeros</code> - only zero bytes</li>
+ * </ul>
+ * The same seed (default 0) always generates the same content, so runs are reproducible.
+ */
+final class SyntheticPayload {
+
+    /** prefix of all synthetic paths */
+    static final String PREFIX = "synthetic:"; // $NON-NLS-1$
+
+    static final String PATTERN_RANDOM = "random"; // $NON-NLS-1$
+    static final String PATTERN_TEXT = "text"; // $NON-NLS-1$
+    static final String PATTERN_ZEROS = "zeros"; // $NON-NLS-1$
+
+    /** 64 characters, so every 6 random bits select one */
+    private static final byte[] ALPHABET =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 \n".getBytes(CorpusPack.UTF8); // $NON-NLS-1$
+
+    private final long size;
+
+    private final long seed;
+
+    private final String pattern;
+
+    private SyntheticPayload(long size, long seed, String pattern) {
+        this.size = size;
+        this.seed = seed;
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param path a path
+     * @return true if the path denotes synthetic content
+     */
+    static boolean isSynthetic(String path) {
+        return path.startsWith(PREFIX);
+    }
+
+    /**
+     * Parses a specification.
+     *
+     * @param path specification starting with {@value #PREFIX}
+     * @return the parsed specification
+     * @throws IllegalArgumentException if the specification is invalid
+     */
+    static SyntheticPayload parse(String path) {
+        long size = -1;
+        long seed = 0;
+        String pattern = PATTERN_RANDOM;
+        for (String parameter : path.substring(PREFIX.length()).split(",")) { // $NON-NLS-1$
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Invalid parameter '" + parameter + "' in " + path);
+            }
+            String key = parameter.substring(0, equals).trim().toLowerCase(Locale.ENGLISH);
+            String value = parameter.substring(equals + 1).trim();
+            try {
+                switch (key) {
+                case "size": // $NON-NLS-1$
+                    size = ByteSize.parse(value);
+                    break;
+                case "seed": // $NON-NLS-1$
+                    seed = Long.parseLong(value);
+                    break;
+                case "pattern": // $NON-NLS-1$
+                    pattern = value.toLowerCase(Locale.ENGLISH);
+                    if (!PATTERN_RANDOM.equals(pattern) && !PATTERN_TEXT.equals(pattern) && !PATTERN_ZEROS.equals(pattern)) {
+                        throw new IllegalArgumentException("Unknown pattern '" + value + "' in " + path);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter '" + key + "' in " + path);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number '" + value + "' in " + path, e);
+            }
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("No size given in " + path);
+        }
+        return new SyntheticPayload(size, seed, pattern);
+    }
+
+    /**
+     * @return the name sent in uploads
+     */
+    String getName() {
+        return "synthetic-" + size + "-" + seed + (PATTERN_TEXT.equals(pattern) ? ".txt" : ".bin"); // $NON-NLS-1$ $NON-NLS-2$ $NON-NLS-3$ $NON-NLS-4$
+    }
+
+    /**
+     * @return the MIME type matching the pattern
+     */
+    String getMimeType() {
+        return PATTERN_TEXT.equals(pattern) ? "text/plain" : "application/octet-stream"; // $NON-NLS-1$ $NON-NLS-2$
+    }
+
+    /**
+     * Generates the content, split into segments like {@link FileContent} expects.
+     * Digests are computed on their first request.
+     *
+     * @param direct whether to generate into direct buffers
+     * @return the content
+     */
+    FileContent generate(boolean direct) {
+        ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1,
+                (size + FileContent.MAX_SEGMENT_SIZE - 1) / FileContent.MAX_SEGMENT_SIZE)];
+        // xorshift64*, the seed is scrambled so small seeds do not start with a run of zeros
+        long state = (seed ^ 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        if (state == 0) {
+            state = 0x9E3779B97F4A7C15L;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            int length = (int) Math.min(FileContent.MAX_SEGMENT_SIZE, size - (long) i * FileContent.MAX_SEGMENT_SIZE);
+            ByteBuffer segment = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            if (!PATTERN_ZEROS.equals(pattern)) {
+                boolean text = PATTERN_TEXT.equals(pattern);
+                while (segment.hasRemaining()) {
+                    state ^= state >>> 12;
+                    state ^= state << 25;
+                    state ^= state >>> 27;
+                    long random = state * 0x2545F4914F6CDD1DL;
+                    if (text) {
+                        long characters = 0;
+                        for (int shift = 56; shift >= 0; shift -= 8) {
+                            characters = characters << 8 | ALPHABET[(int) (random >>> shift) & 0x3F];
+                        }
+                        random = characters;
+                    }
+                    if (segment.remaining() >= 8) {
+                        segment.putLong(random);
+                    } else {
+                        while (segment.hasRemaining()) {
+                            segment.put((byte) random);
+                            random >>>= 8;
+                        }
+                    }
+                }
+            }
+            segment.clear();
+            segments[i] = segment;
+        }
+        return new FileContent(segments, Collections.<String, String>emptyMap());
+    }
+}
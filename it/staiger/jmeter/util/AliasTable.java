@@ -0,0 +1,94 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.util;
+
+import java.util.Random;
+
+/**
+ * Draws indexes with probabilities proportional to given weights in constant time,
+ * using the alias method (Vose). Building the table takes linear time, it is immutable
+ * afterwards and can be shared by any number of threads.
+ */
+public final class AliasTable {
+
+    /** probability of keeping the drawn column instead of taking its alias */
+    private final double[] probabilities;
+
+    private final int[] aliases;
+
+    /**
+     * @param weights non-negative weights, at least one must be positive
+     * @throws IllegalArgumentException if a weight is negative or not finite, or all are zero
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        double sum = 0;
+        for (double weight : weights) {
+            if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Invalid weight " + weight);
+            }
+            sum += weight;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("No positive weight among " + n);
+        }
+        probabilities = new double[n];
+        aliases = new int[n];
+
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // what remains is 1 up to rounding errors
+        while (largeCount > 0) {
+            int index = large[--largeCount];
+            probabilities[index] = 1;
+            aliases[index] = index;
+        }
+        while (smallCount > 0) {
+            int index = small[--smallCount];
+            probabilities[index] = 1;
+            aliases[index] = index;
+        }
+    }
+
+    /**
+     * @return number of indexes
+     */
+    public int size() {
+        return probabilities.length;
+    }
+
+    /**
+     * @param random source of randomness, e.g. {@link java.util.concurrent.ThreadLocalRandom#current()}
+     * @return an index between 0 and {@link #size()} - 1
+     */
+    public int next(Random random) {
+        int column = random.nextInt(probabilities.length);
+        return random.nextDouble() < probabilities[column] ? column : aliases[column];
+    }
+}
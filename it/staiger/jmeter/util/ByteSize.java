@@ -0,0 +1,44 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.util;
+
+import java.util.Locale;
+
+/**
+ * Parses sizes given in bytes or with one of the suffixes B, KB, MB and GB (powers of 1024), e.g. <code>5MB</code>.
+ */
+public final class ByteSize {
+
+    private ByteSize() {
+    }
+
+    /**
+     * @param value size in bytes, optionally followed by B, KB, MB or GB, ignoring case
+     * @return number of bytes
+     * @throws NumberFormatException if the value is not a valid size
+     */
+    public static long parse(String value) {
+        String upper = value.trim().toUpperCase(Locale.ENGLISH);
+        int shift = 0;
+        if (upper.endsWith("KB")) { // $NON-NLS-1$
+            shift = 10;
+        } else if (upper.endsWith("MB")) { // $NON-NLS-1$
+            shift = 20;
+        } else if (upper.endsWith("GB")) { // $NON-NLS-1$
+            shift = 30;
+        } else if (upper.endsWith("B")) { // $NON-NLS-1$
+            upper = upper.substring(0, upper.length() - 1);
+        }
+        if (shift > 0) {
+            upper = upper.substring(0, upper.length() - 2);
+        }
+        long number = Long.parseLong(upper.trim());
+        if (number < 0 || number > Long.MAX_VALUE >> shift) {
+            throw new NumberFormatException("Size out of range: " + value);
+        }
+        return number << shift;
+    }
+}
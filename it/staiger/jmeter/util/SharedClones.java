@@ -0,0 +1,61 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.PropertyIterator;
+
+/**
+ * Clones test elements like {@link org.apache.jmeter.testelement.AbstractTestElement#clone()} does,
+ * but leaves out properties whose content the clones share with their element instead.
+ * Used for the per-thread clones of large file lists, which would otherwise be deep-copied for every thread.
+ */
+public final class SharedClones {
+
+    private SharedClones() {
+    }
+
+    /**
+     * @param element element to clone
+     * @param shared names of the properties not to clone, the caller hands their content on to the clone
+     * @return the clone, in the same running state as the element
+     * @throws AssertionError if the element has no accessible no-argument constructor, as in
+     *          {@link org.apache.jmeter.testelement.AbstractTestElement#clone()}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends TestElement> T cloneWithout(T element, String... shared) {
+        List<String> skipped = Arrays.asList(shared);
+        try {
+            T clone = (T) element.getClass().getDeclaredConstructor().newInstance();
+            PropertyIterator properties = element.propertyIterator();
+            while (properties.hasNext()) {
+                JMeterProperty property = properties.next();
+                if (!skipped.contains(property.getName())) {
+                    clone.setProperty(property.clone());
+                }
+            }
+            clone.setRunningVersion(element.isRunningVersion());
+            return clone;
+        } catch (InvocationTargetException e) {
+            // the constructor failed, pass on its unchecked exception
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AssertionError(cause);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for statistics updated by many threads at once.
+ * Updates are spread over several cells selected by the current thread,
+ * so threads rarely contend on the same cell. Reading sums up all cells.
+ * Replacement for {@code java.util.concurrent.atomic.LongAdder}, which needs Java 8.
+ */
+public class StripedCounter {
+
+    /** number of longs in a cache line, padded cells are spaced by this */
+    private static final int CACHE_LINE_LONGS = 8;
+
+    /** default number of cells: next power of two of twice the processors */
+    private static final int DEFAULT_CELLS =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    private final int spacing;
+
+    /**
+     * Creates a counter with cells on separate cache lines, for counters updated on every request.
+     */
+    public StripedCounter() {
+        this(DEFAULT_CELLS, true);
+    }
+
+    /**
+     * @param cells number of cells, rounded up to a power of two
+     * @param padded place every cell on its own cache line, uses more memory
+     */
+    public StripedCounter(int cells, boolean padded) {
+        int count = Integer.highestOneBit(Math.max(1, cells * 2 - 1));
+        this.mask = count - 1;
+        this.spacing = padded ? CACHE_LINE_LONGS : 1;
+        this.cells = new AtomicLongArray(count * spacing);
+    }
+
+    /**
+     * Adds one to the counter.
+     */
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * @param value value to add to the counter
+     */
+    public void add(long value) {
+        cells.getAndAdd(index(), value);
+    }
+
+    /**
+     * @return the sum of all cells
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += spacing) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Sets all cells to zero. Updates running at the same time may get lost.
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += spacing) {
+            cells.set(i, 0L);
+        }
+    }
+
+    /**
+     * @return the cell of the current thread
+     */
+    private int index() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32));
+        return (hash & mask) * spacing;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * @@@LICENSE
+ *
+ */
+
+package it.staiger.jmeter.util;
+
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.testelement.property.FunctionProperty;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.MultiProperty;
+import org.apache.jmeter.testelement.property.PropertyIterator;
+
+/**
+ * Tells whether the properties of an element may differ per thread.
+ * Once the engine has compiled a test, <code>${...}</code> is held by {@link FunctionProperty}s whose
+ * string value is already evaluated, so the raw properties are checked instead of their values.
+ */
+public final class ThreadValues {
+
+    private ThreadValues() {
+    }
+
+    /**
+     * @param element element to check, including nested elements
+     * @return true if any property contains a function or variable reference
+     */
+    public static boolean dependOnThread(TestElement element) {
+        PropertyIterator properties = element.propertyIterator();
+        while (properties.hasNext()) {
+            if (dependsOnThread(properties.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param property property to check, including nested properties
+     * @return true if the property is or contains a function or variable reference
+     */
+    public static boolean dependsOnThread(JMeterProperty property) {
+        if (property instanceof FunctionProperty) {
+            return true;
+        }
+        if (property instanceof MultiProperty) {
+            PropertyIterator properties = ((MultiProperty) property).iterator();
+            while (properties.hasNext()) {
+                if (dependsOnThread(properties.next())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return property.getStringValue().contains("${"); // $NON-NLS-1$
+    }
+}